@@ -26,7 +26,9 @@ import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.EOFException;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
@@ -45,6 +47,8 @@ import org.jboss.capedwarf.shared.compatibility.Compatibility;
  * @author <a href="mailto:mluksa@redhat.com">Marko Luksa</a>
  */
 public class RemoteApiServlet extends HttpServlet {
+    private static final int IMPORT_BATCH_SIZE = Integer.getInteger("jboss.capedwarf.remote.importBatchSize", 500);
+
     private DatastoreService datastoreService = DatastoreServiceFactory.getDatastoreService();
 
     @Override
@@ -52,9 +56,14 @@ public class RemoteApiServlet extends HttpServlet {
         Compatibility.enable(Compatibility.Feature.IGNORE_LOGGING);
         try {
             ExposedDatastoreService datastore = (ExposedDatastoreService) datastoreService;
+            // optional key range, so dump can be streamed in parallel: shard=i&shards=n
+            int shards = getIntParameter(req, "shards", 1);
+            int shard = getIntParameter(req, "shard", 0);
+            // tells BulkLoader the key range was applied
+            resp.setHeader("X-CapeDwarf-Dump-Shards", String.valueOf(shards));
             DataOutputStream out = new DataOutputStream(resp.getOutputStream());
             try {
-                Iterator<Entity> entities = datastore.getAllEntitiesIterator();
+                Iterator<Entity> entities = datastore.getAllEntitiesIterator(shard, shards);
                 while (entities.hasNext()) {
                     Entity entity = entities.next();
                     OnestoreEntity.EntityProto entityProto = EntityTranslator.convertToPb(entity);
@@ -71,6 +80,11 @@ public class RemoteApiServlet extends HttpServlet {
         }
     }
 
+    private static int getIntParameter(HttpServletRequest req, String name, int defaultValue) {
+        String value = req.getParameter(name);
+        return (value != null) ? Integer.parseInt(value) : defaultValue;
+    }
+
     private static void writeArray(DataOutputStream out, byte[] pbBytes) throws IOException {
         out.writeInt(pbBytes.length);
         out.write(pbBytes);
@@ -80,6 +94,7 @@ public class RemoteApiServlet extends HttpServlet {
     protected void doPut(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
         DataInputStream in = new DataInputStream(req.getInputStream());
         try {
+            List<Entity> batch = new ArrayList<Entity>(IMPORT_BATCH_SIZE);
             while (true) {
                 int arrayLength;
                 try {
@@ -90,8 +105,14 @@ public class RemoteApiServlet extends HttpServlet {
                 byte[] pbBytes = new byte[arrayLength];
                 in.readFully(pbBytes, 0, arrayLength);
 
-                Entity entity = EntityTranslator.createFromPbBytes(pbBytes);
-                datastoreService.put(entity);
+                batch.add(EntityTranslator.createFromPbBytes(pbBytes));
+                if (batch.size() == IMPORT_BATCH_SIZE) {
+                    datastoreService.put(batch);
+                    batch.clear();
+                }
+            }
+            if (batch.isEmpty() == false) {
+                datastoreService.put(batch);
             }
         } finally {
             in.close();
@@ -60,13 +60,29 @@ public class CapedwarfAppIdentityService implements AppIdentityService {
     public static final String MEMCACHE_KEY_PREFIX = "_ah_app_identity_";
     public static final long OFFSET = 300000L;
 
+    private static final int ROTATION_WAIT_ATTEMPTS = 50;
+    private static final long ROTATION_WAIT = 100L;
+
+    // initialized signatures, re-used while the key stays the same
+    private static final ThreadLocal<KeySignature> signatures = new ThreadLocal<KeySignature>();
+
     public SigningResult signForApp(byte[] bytes) {
-        rotateCertificatesIfNeeded();
-        CertificateBundle bundle = getCertificateStore().getCurrentBundle();
+        CertificateBundle bundle = getCurrentBundle();
         byte[] signature = sign(bytes, bundle.getPrivateKey());
         return new SigningResult(bundle.getName(), signature);
     }
 
+    private CertificateBundle getCurrentBundle() {
+        CurrentBundleCache cache = CurrentBundleCache.getInstance(Application.getAppId());
+        CertificateBundle bundle = cache.get();
+        if (bundle == null) {
+            rotateCertificatesIfNeeded();
+            bundle = getCertificateStore().getCurrentBundle();
+            cache.set(bundle);
+        }
+        return bundle;
+    }
+
     public Collection<PublicCertificate> getPublicCertificatesForApp() {
         rotateCertificatesIfNeeded();
         Collection<PublicCertificate> certificates = new ArrayList<PublicCertificate>();
@@ -79,8 +95,31 @@ public class CapedwarfAppIdentityService implements AppIdentityService {
     }
 
     private void rotateCertificatesIfNeeded() {
-        if (rotationNeeded()) {
-            rotateCertificates();
+        if (rotationNeeded() == false) {
+            return;
+        }
+        // only one node generates the new key pair, others wait for it
+        CertificateStore certificateStore = getCertificateStore();
+        if (certificateStore.tryLockRotation()) {
+            try {
+                if (rotationNeeded()) {
+                    rotateCertificates();
+                }
+            } finally {
+                certificateStore.unlockRotation();
+            }
+        } else {
+            for (int i = 0; i < ROTATION_WAIT_ATTEMPTS && rotationNeeded(); i++) {
+                try {
+                    Thread.sleep(ROTATION_WAIT);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new AppIdentityServiceFailureException("Interrupted waiting for certificate rotation.");
+                }
+            }
+            if (rotationNeeded()) {
+                throw new AppIdentityServiceFailureException("Certificate rotation did not complete in time.");
+            }
         }
     }
 
@@ -93,6 +132,7 @@ public class CapedwarfAppIdentityService implements AppIdentityService {
         CertificateStore certificateStore = getCertificateStore();
         certificateStore.store(createNewCertificate());
         certificateStore.removeStaleCertificates();
+        CurrentBundleCache.getInstance(Application.getAppId()).clear();
     }
 
     private CertificateStore getCertificateStore() {
@@ -108,11 +148,21 @@ public class CapedwarfAppIdentityService implements AppIdentityService {
 
     private byte[] sign(byte[] bytes, PrivateKey privateKey) {
         try {
-            Signature dsa = Signature.getInstance("SHA256WithRSA", "BC");
-            dsa.initSign(privateKey);
-            dsa.update(bytes);
-            return dsa.sign();
-
+            KeySignature ks = signatures.get();
+            if (ks == null || ks.key != privateKey) {
+                Signature dsa = Signature.getInstance("SHA256WithRSA", "BC");
+                dsa.initSign(privateKey);
+                ks = new KeySignature(privateKey, dsa);
+                signatures.set(ks);
+            }
+            try {
+                // sign() resets the signature, ready for the next one
+                ks.signature.update(bytes);
+                return ks.signature.sign();
+            } catch (SignatureException e) {
+                signatures.remove();
+                throw e;
+            }
         } catch (NoSuchAlgorithmException e) {
             throw new AppIdentityServiceFailureException("Cannot sign: " + e);
         } catch (NoSuchProviderException e) {
@@ -188,4 +238,14 @@ public class CapedwarfAppIdentityService implements AppIdentityService {
             builder.append(", ");
         }
     }
+
+    private static class KeySignature {
+        private final PrivateKey key;
+        private final Signature signature;
+
+        private KeySignature(PrivateKey key, Signature signature) {
+            this.key = key;
+            this.signature = signature;
+        }
+    }
 }
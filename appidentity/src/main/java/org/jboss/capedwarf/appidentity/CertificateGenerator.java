@@ -85,13 +85,17 @@ public class CertificateGenerator {
     }
 
     public X509Certificate generateCertificate(KeyPair pair, String dn) {
+        return generateCertificate(pair, dn, new Date(System.currentTimeMillis() - 10000), new Date(System.currentTimeMillis() + 24L*3600*1000));
+    }
+
+    public X509Certificate generateCertificate(KeyPair pair, String dn, Date notBefore, Date notAfter) {
         try {
 
             X509v3CertificateBuilder builder = new X509v3CertificateBuilder(
                 new X500Name("CN=" + dn),
                 BigInteger.valueOf(new SecureRandom().nextLong()),
-                new Date(System.currentTimeMillis() - 10000),
-                new Date(System.currentTimeMillis() + 24L*3600*1000),
+                notBefore,
+                notAfter,
                 new X500Name("CN=" + dn),
                 SubjectPublicKeyInfo.getInstance(pair.getPublic().getEncoded()));
 
@@ -26,6 +26,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
 
+import com.google.appengine.api.memcache.Expiration;
 import com.google.appengine.api.memcache.MemcacheService;
 import com.google.appengine.api.memcache.MemcacheServiceFactory;
 
@@ -38,6 +39,9 @@ public class CertificateStore {
 
     public static final String CURRENT_BUNDLE_KEY = "_ah_current_bundle";
     public static final String ALL_BUNDLES_KEY = "_ah_all_bundles";
+    public static final String ROTATION_LOCK_KEY = "_ah_rotation_lock";
+
+    private static final int ROTATION_LOCK_SECONDS = 60;
 
 
     public CertificateBundle getCurrentBundle() {
@@ -54,30 +58,74 @@ public class CertificateStore {
         return bundles == null ? new ArrayList<CertificateBundle>() : bundles;
     }
 
-    private void putAllBundles(Collection<CertificateBundle> bundles) {
-        getMemcacheService().put(ALL_BUNDLES_KEY, bundles);
+    /**
+     * Update all bundles with compare-and-set, retrying on concurrent modification.
+     *
+     * @param update the update
+     */
+    @SuppressWarnings("unchecked")
+    private void updateAllBundles(BundlesUpdate update) {
+        final MemcacheService ms = getMemcacheService();
+        while (true) {
+            MemcacheService.IdentifiableValue current = ms.getIdentifiable(ALL_BUNDLES_KEY);
+            if (current == null) {
+                Collection<CertificateBundle> bundles = new ArrayList<CertificateBundle>();
+                update.apply(bundles);
+                if (ms.put(ALL_BUNDLES_KEY, bundles, null, MemcacheService.SetPolicy.ADD_ONLY_IF_NOT_PRESENT)) {
+                    return;
+                }
+            } else {
+                Collection<CertificateBundle> bundles = new ArrayList<CertificateBundle>((Collection<CertificateBundle>) current.getValue());
+                update.apply(bundles);
+                if (ms.putIfUntouched(ALL_BUNDLES_KEY, current, bundles)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Try to become the node that rotates certificates.
+     * The lock expires by itself, in case its owner dies.
+     *
+     * @return true if locked
+     */
+    public boolean tryLockRotation() {
+        return getMemcacheService().put(ROTATION_LOCK_KEY, Boolean.TRUE, Expiration.byDeltaSeconds(ROTATION_LOCK_SECONDS), MemcacheService.SetPolicy.ADD_ONLY_IF_NOT_PRESENT);
+    }
+
+    public void unlockRotation() {
+        getMemcacheService().delete(ROTATION_LOCK_KEY);
     }
 
     private MemcacheService getMemcacheService() {
         return MemcacheServiceFactory.getMemcacheService(CapedwarfAppIdentityService.MEMCACHE_NAMESPACE);
     }
 
-    public void store(CertificateBundle bundle) {
-        Collection<CertificateBundle> bundles = getAllBundles();
-        bundles.add(bundle);
-        putAllBundles(bundles);
+    public void store(final CertificateBundle bundle) {
+        updateAllBundles(new BundlesUpdate() {
+            public void apply(Collection<CertificateBundle> bundles) {
+                bundles.add(bundle);
+            }
+        });
         putCurrentBundle(bundle);
     }
 
     public void removeStaleCertificates() {
-        Collection<CertificateBundle> bundles = getAllBundles();
-        for (Iterator<CertificateBundle> iterator = bundles.iterator(); iterator.hasNext(); ) {
-            CertificateBundle bundle = iterator.next();
-            if (bundle.isStale()) {
-                iterator.remove();
+        updateAllBundles(new BundlesUpdate() {
+            public void apply(Collection<CertificateBundle> bundles) {
+                for (Iterator<CertificateBundle> iterator = bundles.iterator(); iterator.hasNext(); ) {
+                    CertificateBundle bundle = iterator.next();
+                    if (bundle.isStale()) {
+                        iterator.remove();
+                    }
+                }
             }
-        }
-        putAllBundles(bundles);
+        });
+    }
+
+    private static interface BundlesUpdate {
+        void apply(Collection<CertificateBundle> bundles);
     }
 
 }
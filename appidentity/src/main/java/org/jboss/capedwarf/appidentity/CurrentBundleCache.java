@@ -0,0 +1,92 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.capedwarf.appidentity;
+
+import org.jboss.capedwarf.common.shared.AppComponents;
+
+/**
+ * Node-local copy of app's current certificate bundle.
+ *
+ * It's re-read from the certificate store after a short while, to pick up rotations
+ * done by other nodes, and never served past its certificate's expiration.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public final class CurrentBundleCache {
+    private static final long REFRESH = Long.getLong("jboss.capedwarf.appidentity.bundleRefresh", 60000L);
+
+    private final long refresh;
+    private volatile Entry entry;
+
+    /**
+     * Create a cache.
+     *
+     * @param refresh how long, in millis, a bundle is served before it's re-read
+     */
+    public CurrentBundleCache(long refresh) {
+        this.refresh = refresh;
+    }
+
+    private static final AppComponents.Factory<CurrentBundleCache> FACTORY = new AppComponents.Factory<CurrentBundleCache>() {
+        protected CurrentBundleCache create() {
+            return new CurrentBundleCache(REFRESH);
+        }
+    };
+
+    static CurrentBundleCache getInstance(String appId) {
+        return AppComponents.getOrCreate(appId, CurrentBundleCache.class, FACTORY);
+    }
+
+    /**
+     * Get the bundle.
+     *
+     * @return current bundle or null if it needs to be re-read
+     */
+    public CertificateBundle get() {
+        Entry e = entry;
+        return (e != null && System.currentTimeMillis() < e.validUntil) ? e.bundle : null;
+    }
+
+    public void set(CertificateBundle bundle) {
+        Entry e = entry;
+        if (e != null && e.bundle.getName().equals(bundle.getName())) {
+            bundle = e.bundle; // same bundle, keep the instance its signatures are initialized with
+        }
+        long validUntil = Math.min(bundle.getCertificate().getNotAfter().getTime(), System.currentTimeMillis() + refresh);
+        entry = new Entry(bundle, validUntil);
+    }
+
+    public void clear() {
+        entry = null;
+    }
+
+    private static class Entry {
+        private final CertificateBundle bundle;
+        private final long validUntil;
+
+        private Entry(CertificateBundle bundle, long validUntil) {
+            this.bundle = bundle;
+            this.validUntil = validUntil;
+        }
+    }
+}
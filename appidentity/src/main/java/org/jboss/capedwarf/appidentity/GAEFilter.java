@@ -25,7 +25,6 @@
 package org.jboss.capedwarf.appidentity;
 
 import java.io.IOException;
-import java.util.List;
 
 import javax.servlet.Filter;
 import javax.servlet.FilterChain;
@@ -40,17 +39,18 @@ import javax.servlet.http.HttpServletResponse;
 import com.google.appengine.api.blobstore.BlobKey;
 import com.google.appengine.api.blobstore.BlobstoreServiceFactory;
 import org.jboss.capedwarf.blobstore.ExposedBlobstoreService;
-import org.jboss.capedwarf.common.config.CapedwarfEnvironment;
-import org.jboss.capedwarf.shared.config.AppEngineWebXml;
-import org.jboss.capedwarf.shared.config.FilePattern;
+import org.jboss.capedwarf.shared.config.ConfigurationAware;
 
 /**
  * @author <a href="mailto:marko.luksa@gmail.com">Marko Luksa</a>
  * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
  */
-public class GAEFilter implements Filter {
+public class GAEFilter extends ConfigurationAware implements Filter {
+    private StaticFileMatcher staticFileMatcher;
 
     public void init(FilterConfig filterConfig) throws ServletException {
+        initialize();
+        staticFileMatcher = new StaticFileMatcher(appEngineWebXml);
     }
 
     public void doFilter(ServletRequest req, ServletResponse res, FilterChain chain) throws IOException, ServletException {
@@ -68,17 +68,7 @@ public class GAEFilter implements Filter {
     }
 
     private boolean isStaticFile(HttpServletRequest request) {
-        AppEngineWebXml appEngineWebXml = CapedwarfEnvironment.getThreadLocalInstance().getAppEngineWebXml();
-        return matches(request.getRequestURI(), appEngineWebXml.getStaticFileIncludes()) && !matches(request.getRequestURI(), appEngineWebXml.getStaticFileExcludes());
-    }
-
-    private boolean matches(String uri, List<? extends FilePattern> patterns) {
-        for (FilePattern pattern : patterns) {
-            if (pattern.matches(uri)) {
-                return true;
-            }
-        }
-        return false;
+        return staticFileMatcher.isStaticFile(request.getRequestURI());
     }
 
     private void serveStaticFile(HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException {
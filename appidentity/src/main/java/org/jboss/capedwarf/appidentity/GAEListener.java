@@ -35,6 +35,7 @@ import com.google.appengine.api.log.LogServiceFactory;
 import org.jboss.capedwarf.common.apiproxy.CapedwarfDelegate;
 import org.jboss.capedwarf.common.config.CapedwarfEnvironment;
 import org.jboss.capedwarf.common.security.PrincipalInfo;
+import org.jboss.capedwarf.common.threads.UndeployHooks;
 import org.jboss.capedwarf.log.ExposedLogService;
 import org.jboss.capedwarf.shared.config.AppEngineWebXml;
 import org.jboss.capedwarf.shared.config.BackendsXml;
@@ -92,6 +93,7 @@ public class GAEListener extends ConfigurationAware implements ServletContextLis
     }
 
     public void contextDestroyed(ServletContextEvent sce) {
+        UndeployHooks.run(appEngineWebXml.getApplication());
     }
 
     public void requestInitialized(ServletRequestEvent sre) {
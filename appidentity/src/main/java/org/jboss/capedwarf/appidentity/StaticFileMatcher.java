@@ -0,0 +1,83 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.capedwarf.appidentity;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.jboss.capedwarf.shared.config.AppEngineWebXml;
+import org.jboss.capedwarf.shared.config.FilePattern;
+
+/**
+ * Decides which request URIs are static files, for one deployment.
+ *
+ * The include and exclude patterns are only run for URIs without a cached decision.
+ * Once the cache is full, arbitrary decisions are evicted to make room.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+final class StaticFileMatcher {
+    private static final int MAX_ENTRIES = Integer.getInteger("jboss.capedwarf.staticFiles.cacheSize", 1000);
+
+    private final List<? extends FilePattern> includes;
+    private final List<? extends FilePattern> excludes;
+    private final ConcurrentMap<String, Boolean> decisions = new ConcurrentHashMap<String, Boolean>();
+
+    StaticFileMatcher(AppEngineWebXml appEngineWebXml) {
+        this.includes = appEngineWebXml.getStaticFileIncludes();
+        this.excludes = appEngineWebXml.getStaticFileExcludes();
+    }
+
+    boolean isStaticFile(String uri) {
+        Boolean decision = decisions.get(uri);
+        if (decision == null) {
+            decision = matches(uri, includes) && matches(uri, excludes) == false;
+            if (decisions.size() >= MAX_ENTRIES) {
+                evict();
+            }
+            decisions.put(uri, decision);
+        }
+        return decision;
+    }
+
+    private void evict() {
+        // drop a tenth of the entries, so we don't evict on every miss
+        int count = Math.max(1, MAX_ENTRIES / 10);
+        Iterator<String> it = decisions.keySet().iterator();
+        while (count-- > 0 && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+    }
+
+    private static boolean matches(String uri, List<? extends FilePattern> patterns) {
+        for (FilePattern pattern : patterns) {
+            if (pattern.matches(uri)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.test.capedwarf.appidentity.test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import org.jboss.arquillian.container.test.api.Deployment;
+import org.jboss.arquillian.junit.Arquillian;
+import org.jboss.capedwarf.appidentity.CapedwarfAppIdentityService;
+import org.jboss.capedwarf.appidentity.CertificateBundle;
+import org.jboss.capedwarf.appidentity.CertificateStore;
+import org.jboss.shrinkwrap.api.Archive;
+import org.jboss.shrinkwrap.api.spec.WebArchive;
+import org.jboss.test.capedwarf.common.support.All;
+import org.jboss.test.capedwarf.common.test.TestBase;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.runner.RunWith;
+
+/**
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+@RunWith(Arquillian.class)
+@Category(All.class)
+public class CertificateStoreTest extends TestBase {
+
+    @Deployment
+    public static Archive getDeployment() {
+        final WebArchive war = getCapedwarfDeployment();
+        war.addClass(CurrentBundleCacheTest.class);
+        war.addAsWebInfResource("jboss-deployment-structure.xml");
+        return war;
+    }
+
+    @Before
+    public void setUp() {
+        MemcacheServiceFactory.getMemcacheService(CapedwarfAppIdentityService.MEMCACHE_NAMESPACE).delete(CertificateStore.ALL_BUNDLES_KEY);
+    }
+
+    @Test
+    public void testConcurrentStoresKeepAllBundles() throws Exception {
+        final CertificateStore store = new CertificateStore();
+        final int count = 10;
+
+        final List<CertificateBundle> bundles = new ArrayList<CertificateBundle>();
+        for (int i = 0; i < count; i++) {
+            bundles.add(CurrentBundleCacheTest.createBundle("bundle" + i, 3600000L));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(count);
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (final CertificateBundle bundle : bundles) {
+                futures.add(executor.submit(new Callable<Void>() {
+                    public Void call() throws Exception {
+                        store.store(bundle);
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        Assert.assertEquals(names(bundles), names(store.getAllBundles()));
+    }
+
+    @Test
+    public void testRemoveStaleCertificates() throws Exception {
+        CertificateStore store = new CertificateStore();
+        CertificateBundle valid = CurrentBundleCacheTest.createBundle("valid", 3600000L);
+        CertificateBundle stale = CurrentBundleCacheTest.createBundle("stale", -1000L);
+        store.store(stale);
+        store.store(valid);
+
+        store.removeStaleCertificates();
+
+        Set<String> expected = new HashSet<String>();
+        expected.add("valid");
+        Assert.assertEquals(expected, names(store.getAllBundles()));
+    }
+
+    private static Set<String> names(Iterable<CertificateBundle> bundles) {
+        Set<String> names = new HashSet<String>();
+        for (CertificateBundle bundle : bundles) {
+            names.add(bundle.getName());
+        }
+        return names;
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.test.capedwarf.appidentity.test;
+
+import java.security.KeyPair;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+
+import org.jboss.capedwarf.appidentity.CertificateBundle;
+import org.jboss.capedwarf.appidentity.CertificateGenerator;
+import org.jboss.capedwarf.appidentity.CurrentBundleCache;
+import org.jboss.test.capedwarf.common.support.JBoss;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+@Category(JBoss.class)
+public class CurrentBundleCacheTest {
+
+    @Test
+    public void testBundleExpiresAfterRefresh() throws Exception {
+        CurrentBundleCache cache = new CurrentBundleCache(200L);
+        CertificateBundle bundle = createBundle("a", 3600000L);
+        cache.set(bundle);
+        assertSame(bundle, cache.get());
+
+        Thread.sleep(400L);
+        assertNull(cache.get());
+    }
+
+    @Test
+    public void testBundleExpiresWithCertificate() throws Exception {
+        CurrentBundleCache cache = new CurrentBundleCache(3600000L);
+        CertificateBundle bundle = createBundle("a", 1000L);
+        cache.set(bundle);
+        assertSame(bundle, cache.get());
+
+        Thread.sleep(1500L);
+        assertNull(cache.get());
+    }
+
+    @Test
+    public void testSameBundleKeepsInstance() throws Exception {
+        CurrentBundleCache cache = new CurrentBundleCache(3600000L);
+        CertificateBundle bundle = createBundle("a", 3600000L);
+        cache.set(bundle);
+        cache.set(createBundle("a", 3600000L));
+        assertSame(bundle, cache.get());
+
+        CertificateBundle other = createBundle("b", 3600000L);
+        cache.set(other);
+        assertSame(other, cache.get());
+    }
+
+    @Test
+    public void testClear() throws Exception {
+        CurrentBundleCache cache = new CurrentBundleCache(3600000L);
+        cache.set(createBundle("a", 3600000L));
+        cache.clear();
+        assertNull(cache.get());
+    }
+
+    static CertificateBundle createBundle(String name, long validFor) {
+        CertificateGenerator generator = CertificateGenerator.getInstance();
+        KeyPair keyPair = generator.generateKeyPair();
+        long now = System.currentTimeMillis();
+        X509Certificate certificate = generator.generateCertificate(keyPair, "localhost", new Date(now - 10000), new Date(now + validFor));
+        return new CertificateBundle(name, keyPair, certificate);
+    }
+}
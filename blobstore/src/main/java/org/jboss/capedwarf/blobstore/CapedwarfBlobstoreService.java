@@ -28,11 +28,18 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.channels.Channels;
 import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
@@ -53,8 +60,10 @@ import com.google.appengine.api.files.FileWriteChannel;
 import com.google.common.base.Function;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import org.jboss.capedwarf.common.async.Wrappers;
 import org.jboss.capedwarf.common.io.IOUtils;
 import org.jboss.capedwarf.common.servlet.ServletUtils;
+import org.jboss.capedwarf.common.util.Util;
 import org.jboss.capedwarf.files.ExposedFileService;
 
 /**
@@ -62,8 +71,13 @@ import org.jboss.capedwarf.files.ExposedFileService;
  * @author <a href="mailto:marko.luksa@gmail.com">Marko Luksa</a>
  */
 public class CapedwarfBlobstoreService implements ExposedBlobstoreService {
+    private static final Logger log = Logger.getLogger(CapedwarfBlobstoreService.class.getName());
     private static final String UPLOADED_BLOBKEY_ATTR = "com.google.appengine.api.blobstore.upload.blobkeys";
     private static final String UPLOADED_BLOBKEY_LIST_ATTR = "com.google.appengine.api.blobstore.upload.blobkeylists";
+    // how many uploaded parts are written to the grid at once
+    private static final int UPLOAD_CONCURRENCY = Integer.parseInt(System.getProperty("jboss.capedwarf.blobstore.uploadConcurrency", "4"));
+    // grid chunk size of uploaded blobs, larger chunks mean fewer cache puts
+    private static final int UPLOAD_CHUNK_SIZE = Integer.parseInt(System.getProperty("jboss.capedwarf.blobstore.uploadChunkSize", String.valueOf(512 * 1024)));
 
     private Function<List<BlobKey>, List<BlobInfo>> BLOB_LIST_KEY_TO_INFO_FN = new Function<List<BlobKey>, List<BlobInfo>>() {
         public List<BlobInfo> apply(List<BlobKey> input) {
@@ -209,8 +223,10 @@ public class CapedwarfBlobstoreService implements ExposedBlobstoreService {
         }
 
         try {
+            // size the buffer by what is actually left in the blob, not by the requested range
+            long size = Math.max(0, Math.min(fetchSize, getFileService().getLength(blobKey) - startIndex));
             InputStream stream = getStream(blobKey);
-            return IOUtils.toBytes(stream, startIndex, endIndex, true);
+            return IOUtils.toBytes(stream, startIndex, endIndex, size, true);
         } catch (FileNotFoundException e) {
             throw new IllegalArgumentException("Blob does not exist");
         } catch (IOException e) {
@@ -234,45 +250,170 @@ public class CapedwarfBlobstoreService implements ExposedBlobstoreService {
     }
 
     public void storeUploadedBlobs(HttpServletRequest request) throws IOException, ServletException {
-        Map<String, BlobKey> map = new HashMap<String, BlobKey>();
-        Map<String, List<BlobKey>> map2 = new HashMap<String, List<BlobKey>>();
+        List<Part> parts = new ArrayList<Part>();
         for (Part part : request.getParts()) {
             if (ServletUtils.isFile(part)) {
-                BlobKey blobKey = storeUploadedBlob(part);
-                String name = part.getName();
-                map.put(name, blobKey);
-                List<BlobKey> list = map2.get(name);
-                if (list == null) {
-                    list = new LinkedList<BlobKey>();
-                    map2.put(name, list);
-                }
-                list.add(blobKey);
+                parts.add(part);
             }
         }
 
+        List<BlobKey> blobKeys = storeUploadedBlobs(parts);
+
+        Map<String, BlobKey> map = new HashMap<String, BlobKey>();
+        Map<String, List<BlobKey>> map2 = new HashMap<String, List<BlobKey>>();
+        for (int i = 0; i < parts.size(); i++) {
+            BlobKey blobKey = blobKeys.get(i);
+            String name = parts.get(i).getName();
+            map.put(name, blobKey);
+            List<BlobKey> list = map2.get(name);
+            if (list == null) {
+                list = new LinkedList<BlobKey>();
+                map2.put(name, list);
+            }
+            list.add(blobKey);
+        }
+
         request.setAttribute(UPLOADED_BLOBKEY_ATTR, map);
         request.setAttribute(UPLOADED_BLOBKEY_LIST_ATTR, map2);
     }
 
+    /**
+     * Store parts, copying their content concurrently, at most UPLOAD_CONCURRENCY at a time.
+     * The returned keys are in the same order as the parts.
+     *
+     * Files are created and finalized on the request thread only, as file service
+     * switches the namespace in the request's environment, which the workers share.
+     */
+    private List<BlobKey> storeUploadedBlobs(List<Part> parts) throws IOException {
+        if (parts.size() == 1 || UPLOAD_CONCURRENCY <= 1) {
+            List<BlobKey> blobKeys = new ArrayList<BlobKey>();
+            for (Part part : parts) {
+                blobKeys.add(storeUploadedBlob(part));
+            }
+            return blobKeys;
+        }
+
+        final ExposedFileService fileService = getFileService();
+        final List<AppEngineFile> files = new ArrayList<AppEngineFile>();
+        final List<FileWriteChannel> channels = new ArrayList<FileWriteChannel>();
+        final Semaphore permits = new Semaphore(UPLOAD_CONCURRENCY);
+        final List<Future<Void>> futures = new ArrayList<Future<Void>>();
+        final List<BlobKey> blobKeys = new ArrayList<BlobKey>();
+        boolean finalized = false;
+        try {
+            for (Part part : parts) {
+                AppEngineFile file = fileService.createNewBlobFile(part.getContentType(), ServletUtils.getFileName(part));
+                files.add(file);
+                channels.add(fileService.openWriteChannel(file, true, UPLOAD_CHUNK_SIZE));
+            }
+
+            for (int i = 0; i < parts.size(); i++) {
+                final Part part = parts.get(i);
+                final FileWriteChannel out = channels.get(i);
+                permits.acquire();
+                futures.add(Wrappers.future(new Callable<Void>() {
+                    public Void call() throws Exception {
+                        try {
+                            copy(part, out);
+                            return null;
+                        } finally {
+                            permits.release();
+                        }
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+
+            for (int i = 0; i < files.size(); i++) {
+                channels.get(i).closeFinally();
+                blobKeys.add(fileService.getBlobKey(files.get(i)));
+            }
+            finalized = true;
+            return blobKeys;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw Util.toRuntimeException(cause);
+        } finally {
+            if (finalized == false) {
+                // at most UPLOAD_CONCURRENCY copies are still running, let them stop writing first
+                for (Future<Void> future : futures) {
+                    awaitQuietly(future);
+                }
+                for (FileWriteChannel channel : channels) {
+                    IOUtils.safeClose(channel);
+                }
+                deleteQuietly(files.subList(blobKeys.size(), files.size()), blobKeys);
+            }
+        }
+    }
+
+    private static void awaitQuietly(Future<?> future) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                future.get();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            } catch (Exception ignored) {
+                break;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Delete the files of a failed upload.
+     *
+     * @param files the unfinalized files
+     * @param blobKeys the already finalized blobs
+     */
+    private void deleteQuietly(List<AppEngineFile> files, List<BlobKey> blobKeys) {
+        try {
+            if (files.isEmpty() == false) {
+                getFileService().delete(files.toArray(new AppEngineFile[files.size()]));
+            }
+            if (blobKeys.isEmpty() == false) {
+                delete(blobKeys.toArray(new BlobKey[blobKeys.size()]));
+            }
+        } catch (Exception e) {
+            log.log(Level.WARNING, "Cannot delete files of failed upload: " + files + ", " + blobKeys, e);
+        }
+    }
+
     private BlobKey storeUploadedBlob(Part part) throws IOException {
         ExposedFileService fileService = getFileService();
         AppEngineFile file = fileService.createNewBlobFile(part.getContentType(), ServletUtils.getFileName(part));
 
-        ReadableByteChannel in = Channels.newChannel(part.getInputStream());
+        FileWriteChannel out = fileService.openWriteChannel(file, true, UPLOAD_CHUNK_SIZE);
         try {
-            FileWriteChannel out = fileService.openWriteChannel(file, true);
-            try {
-                IOUtils.copy(in, out);
-            } finally {
-                out.closeFinally();
-            }
+            copy(part, out);
         } finally {
-            in.close();
+            out.closeFinally();
         }
 
         return fileService.getBlobKey(file);
     }
 
+    private static void copy(Part part, FileWriteChannel out) throws IOException {
+        ReadableByteChannel in = Channels.newChannel(part.getInputStream());
+        try {
+            IOUtils.copy(in, out);
+        } finally {
+            in.close();
+        }
+    }
+
     @SuppressWarnings("unchecked")
     public Map<String, BlobKey> getUploadedBlobs(HttpServletRequest request) {
         Map<String, BlobKey> map = (Map<String, BlobKey>) request.getAttribute(UPLOADED_BLOBKEY_ATTR);
@@ -22,8 +22,10 @@
 
 package org.jboss.capedwarf.channel.manager;
 
+import com.google.appengine.api.channel.ChannelFailureException;
 import org.infinispan.remoting.transport.Address;
 import org.jboss.capedwarf.channel.util.ClusterUtils;
+import org.jboss.capedwarf.common.app.Application;
 
 import java.util.concurrent.Callable;
 
@@ -36,11 +38,6 @@ public class Channel {
     private long expirationTime;
     private String token;
 
-    /**
-     * The address of the cluster node with which the browser connection is actually established.
-     */
-    private Address connectedNode;
-
     public Channel(String clientId, long expirationTime, String token) {
         this.clientId = clientId;
         this.expirationTime = expirationTime;
@@ -63,24 +60,50 @@ public class Channel {
         return expirationTime;
     }
 
+    /**
+     * Get the address of the cluster node with which the browser connection is actually established.
+     *
+     * @return the node's address, or null if the channel is not connected
+     */
     public Address getConnectedNode() {
-        return connectedNode;
+        return ConnectedNodeRegistry.getConnectedNode(getToken());
     }
 
-    public void setConnectedNode(Address connectedNode) {
-        this.connectedNode = connectedNode;
+    /**
+     * Send the message to the connected node's queue.
+     * With the FAIL overflow policy the send waits for the queue, so a full queue fails the send.
+     *
+     * @param message the message
+     * @throws ChannelFailureException if the queue is full and the policy is FAIL
+     */
+    public void sendMessage(String message) {
+        SendMessageTask task = new SendMessageTask(getToken(), message);
+        if (ChannelQueueManager.getInstance().getOverflowPolicy() == OverflowPolicy.FAIL) {
+            try {
+                ClusterUtils.executeOnNode(getConnectedNode(), task);
+            } catch (RuntimeException e) {
+                throw toChannelFailure(e);
+            }
+        } else {
+            submitTask(task);
+        }
     }
 
-    public void sendMessage(String message) {
-        submitTask(new SendMessageTask(getToken(), message));
+    // remote failures can come wrapped by the cluster
+    private static RuntimeException toChannelFailure(RuntimeException e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof ChannelFailureException) {
+                return (ChannelFailureException) t;
+            }
+        }
+        return e;
     }
 
     public void close() {
-        submitTask(new CloseChannelTask(getToken()));
+        submitTask(new CloseChannelTask(Application.getAppId(), getToken()));
     }
 
     private void submitTask(Callable<Void> task) {
-        ClusterUtils.submitToAllNodes(task);
-//        ClusterUtils.submitToNode(getConnectedNode(), task);  TODO: submit only to node which holds the connection for the channel
+        ClusterUtils.submitToNode(getConnectedNode(), task);
     }
 }
@@ -22,20 +22,30 @@
 
 package org.jboss.capedwarf.channel.manager;
 
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Random;
 import java.util.Set;
 
 import com.google.appengine.api.channel.ChannelServiceFactory;
 import com.google.appengine.api.datastore.DatastoreService;
 import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
 import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
 import com.google.appengine.api.datastore.Query;
 import org.jboss.capedwarf.channel.ExposedChannelService;
+import org.jboss.capedwarf.common.app.Application;
 
 /**
+ * Channels are stored under a key derived from their client id,
+ * so a client id owns at most one channel, and lookups are plain key gets.
+ * Channels stored with auto-id keys by older versions are still found by query, until they expire.
+ *
  * @author <a href="mailto:marko.luksa@gmail.com">Marko Luksa</a>
  */
 public class ChannelManager {
@@ -45,25 +55,42 @@ public class ChannelManager {
     public static final String PROPERTY_EXPIRATION_TIME = "expirationTime";
     public static final String PROPERTY_TOKEN = "token";
 
+    private static final SecureRandom random = new SecureRandom();
+
     private DatastoreService datastoreService = DatastoreServiceFactory.getDatastoreService();
 
     public Channel createChannel(String clientId, int durationMinutes) {
+        final ChannelTokenCache cache = getTokenCache();
+        Entity previous = getChannelEntity(clientId);
+        if (previous != null) {
+            cache.remove((String) previous.getProperty(PROPERTY_TOKEN));
+        }
+
         Channel channel = new Channel(clientId, toExpirationTime(durationMinutes), generateToken());
         Entity entity = channelToEntity(channel);
         datastoreService.put(entity);
+        cache.put(channel);
         return channel;
     }
 
-    private String generateToken() {
-        return String.valueOf(new Random().nextLong());
+    private static String generateToken() {
+        return new BigInteger(130, random).toString(32);
     }
 
     private long toExpirationTime(int durationMinutes) {
         return System.currentTimeMillis() + (durationMinutes * 60 * 1000);
     }
 
+    private static Key toKey(String clientId) {
+        return KeyFactory.createKey(CHANNEL_ENTITY_KIND, clientId);
+    }
+
+    private static ChannelTokenCache getTokenCache() {
+        return ChannelTokenCache.getInstance(Application.getAppId());
+    }
+
     private Entity channelToEntity(Channel channel) {
-        Entity entity = new Entity(CHANNEL_ENTITY_KIND);
+        Entity entity = new Entity(toKey(channel.getClientId()));
         entity.setProperty(PROPERTY_CLIENT_ID, channel.getClientId());
         entity.setProperty(PROPERTY_EXPIRATION_TIME, channel.getExpirationTime());
         entity.setProperty(PROPERTY_TOKEN, channel.getToken());
@@ -77,12 +104,26 @@ public class ChannelManager {
                 (String) entity.getProperty(PROPERTY_TOKEN));
     }
 
+    private Entity getChannelEntity(String clientId) {
+        try {
+            return datastoreService.get(toKey(clientId));
+        } catch (EntityNotFoundException e) {
+            return null;
+        }
+    }
+
     public Set<Channel> getChannels(String clientId) {
+        Entity entity = getChannelEntity(clientId);
+        if (entity != null) {
+            return Collections.singleton(entityToChannel(entity));
+        }
+
+        // auto-id channels of older versions
         Query query = new Query(CHANNEL_ENTITY_KIND).setFilter(new Query.FilterPredicate(PROPERTY_CLIENT_ID, Query.FilterOperator.EQUAL, clientId));
         List<Entity> entities = datastoreService.prepare(query).asList(FetchOptions.Builder.withDefaults());
         Set<Channel> set = new HashSet<Channel>();
-        for (Entity entity : entities) {
-            set.add(entityToChannel(entity));
+        for (Entity e : entities) {
+            set.add(entityToChannel(e));
         }
         return set;
     }
@@ -91,12 +132,22 @@ public class ChannelManager {
         if (token == null) {
             throw new NullPointerException("token should not be null");
         }
+
+        final ChannelTokenCache cache = getTokenCache();
+        Channel channel = cache.get(token);
+        if (channel != null) {
+            return channel;
+        }
+
+        // finds auto-id channels too; a replaced channel's token is overwritten, so it's not found
         Query query = new Query(CHANNEL_ENTITY_KIND).setFilter(new Query.FilterPredicate(PROPERTY_TOKEN, Query.FilterOperator.EQUAL, token));
         Entity entity = datastoreService.prepare(query).asSingleEntity();
         if (entity == null) {
             throw new NoSuchChannelException("No channel with token " + token);
         }
-        return entityToChannel(entity);
+        channel = entityToChannel(entity);
+        cache.put(channel);
+        return channel;
     }
 
     public static ChannelManager getInstance() {
@@ -22,34 +22,194 @@
 
 package org.jboss.capedwarf.channel.manager;
 
-import javax.servlet.http.HttpServletResponse;
-import java.io.PrintWriter;
-import java.util.LinkedList;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.List;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.appengine.api.channel.ChannelFailureException;
 
 /**
+ * Pending messages of a single channel.
+ *
+ * Readers either block in getPendingMessages, or park a listener,
+ * which is invoked (once) by the thread delivering the next message.
+ * The queue holds at most capacity messages, see OverflowPolicy.
+ *
  * @author <a href="mailto:marko.luksa@gmail.com">Marko Luksa</a>
  */
 public class ChannelQueue {
 
-    private BlockingQueue<String> queue = new LinkedBlockingQueue<String>();
+    private final int capacity;
+    private final OverflowPolicy policy;
+    private final AtomicLong queuedBytes;
 
+    private final Deque<String> messages = new ArrayDeque<String>();
+    private Listener listener;
+    private int waiting;
+    private long lastAccess = System.currentTimeMillis();
     private boolean closed;
+    private String registeredAppId;
+
+    /**
+     * Notified when messages become available, or the queue is closed.
+     */
+    public static interface Listener {
+        void onEvent();
+    }
+
+    ChannelQueue(int capacity, OverflowPolicy policy, AtomicLong queuedBytes) {
+        this.capacity = capacity;
+        this.policy = policy;
+        this.queuedBytes = queuedBytes;
+    }
+
+    // approximate heap size of the message text
+    private static long sizeOf(String message) {
+        return 2L * message.length();
+    }
 
     public void send(String message) {
-        try {
-            queue.put(message);
-        } catch (InterruptedException e) {
-            // ignored
+        Listener parked;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            if (messages.size() >= capacity) {
+                switch (policy) {
+                    case DROP_OLDEST:
+                        queuedBytes.addAndGet(-sizeOf(messages.removeFirst()));
+                        break;
+                    case DROP_NEWEST:
+                        return;
+                    default:
+                        throw new ChannelFailureException("Channel queue is full, capacity: " + capacity);
+                }
+            }
+            messages.addLast(message);
+            queuedBytes.addAndGet(sizeOf(message));
+            parked = takeListener();
+        }
+        if (parked != null) {
+            parked.onEvent();
         }
     }
 
     public void close() {
-        this.closed = true;
-        send("");   // send empty message to unblock queue
+        Listener parked;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            clear();
+            parked = takeListener();
+        }
+        if (parked != null) {
+            parked.onEvent();
+        }
+    }
+
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    private Listener takeListener() {
+        notifyAll();
+        Listener parked = listener;
+        listener = null;
+        return parked;
+    }
+
+    private void clear() {
+        long size = 0;
+        for (String message : messages) {
+            size += sizeOf(message);
+        }
+        messages.clear();
+        queuedBytes.addAndGet(-size);
+    }
+
+    /**
+     * Mark this node as registered for the queue's channel.
+     *
+     * @param appId the app id
+     * @return true if the queue wasn't registered yet
+     */
+    synchronized boolean register(String appId) {
+        if (registeredAppId != null) {
+            return false;
+        }
+        registeredAppId = appId;
+        return true;
+    }
+
+    /**
+     * Get the app for which this node is registered as the channel's connected node.
+     *
+     * @return the app id, or null if not registered
+     */
+    synchronized String getRegisteredAppId() {
+        return registeredAppId;
+    }
+
+    /**
+     * Is there no reader, and hasn't been one for the timeout.
+     *
+     * @param now the current time
+     * @param timeout the idle timeout
+     * @return true if idle
+     */
+    synchronized boolean isIdle(long now, long timeout) {
+        return listener == null && waiting == 0 && now - lastAccess > timeout;
+    }
+
+    /**
+     * Park the listener until the next message arrives or the queue is closed.
+     *
+     * @param listener the listener
+     * @return false if there is no need to wait, as messages are already pending or the queue is closed
+     */
+    public synchronized boolean park(Listener listener) {
+        lastAccess = System.currentTimeMillis();
+        if (closed || messages.isEmpty() == false) {
+            return false;
+        }
+        this.listener = listener;
+        return true;
+    }
+
+    /**
+     * Remove the parked listener, e.g. on timeout.
+     *
+     * @param listener the listener
+     */
+    public synchronized void unpark(Listener listener) {
+        lastAccess = System.currentTimeMillis();
+        if (this.listener == listener) {
+            this.listener = null;
+        }
+    }
+
+    /**
+     * Returns all the pending messages in the queue, without waiting.
+     *
+     * @return a list of messages
+     * @throws ChannelQueueClosedException if the queue is closed
+     */
+    public synchronized List<String> drainMessages() {
+        lastAccess = System.currentTimeMillis();
+        if (closed) {
+            throw new ChannelQueueClosedException();
+        }
+        if (messages.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<String> drained = new ArrayList<String>(messages);
+        clear();
+        return drained;
     }
 
     /**
@@ -60,18 +220,20 @@ public class ChannelQueue {
      * @return a list of messages
      * @throws InterruptedException
      */
-    public List<String> getPendingMessages(long timeoutMillis) throws InterruptedException {
-        List<String> messages = new LinkedList<String>();
-        String message = queue.poll(timeoutMillis, TimeUnit.MILLISECONDS);
-        if (message != null) {
-            messages.add(message);
-            if (!queue.isEmpty()) {
-                queue.drainTo(messages);
+    public synchronized List<String> getPendingMessages(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        waiting++;
+        try {
+            while (messages.isEmpty() && closed == false) {
+                long timeLeft = deadline - System.currentTimeMillis();
+                if (timeLeft <= 0) {
+                    break;
+                }
+                wait(timeLeft);
             }
+        } finally {
+            waiting--;
         }
-        if (closed) {
-            throw new ChannelQueueClosedException();
-        }
-        return messages;
+        return drainMessages();
     }
 }
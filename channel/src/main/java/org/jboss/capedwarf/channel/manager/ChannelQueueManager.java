@@ -22,21 +22,57 @@
 
 package org.jboss.capedwarf.channel.manager;
 
-import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
+import org.infinispan.remoting.transport.Address;
+import org.jboss.capedwarf.channel.util.ClusterUtils;
 import org.jboss.capedwarf.common.app.Application;
 import org.jboss.capedwarf.common.infinispan.InfinispanUtils;
 
 /**
+ * Node-local registry of channel queues.
+ *
+ * Queues without a reader for longer than the idle timeout are closed and removed;
+ * the check is piggybacked on opening queues, at most once per half of the timeout.
+ *
+ * This node is registered as the channel's connected node only when a client first connects,
+ * not on every poll, and unregistered when the queue expires.
  *
  * @author <a href="mailto:marko.luksa@gmail.com">Marko Luksa</a>
  */
 public class ChannelQueueManager {
+    private static final Logger log = Logger.getLogger(ChannelQueueManager.class.getName());
+
+    private static final int CAPACITY = Integer.parseInt(System.getProperty("jboss.capedwarf.channel.queueCapacity", "1000"));
+    private static final OverflowPolicy POLICY = OverflowPolicy.valueOf(System.getProperty("jboss.capedwarf.channel.overflowPolicy", OverflowPolicy.DROP_OLDEST.name()));
+    private static final long IDLE_TIMEOUT = Long.parseLong(System.getProperty("jboss.capedwarf.channel.idleTimeout", "120000"));
+
+    private static final ChannelQueueManager instance = new ChannelQueueManager(CAPACITY, POLICY, IDLE_TIMEOUT);
+
+    private final ConcurrentMap<String, ChannelQueue> queues = new ConcurrentHashMap<String, ChannelQueue>();
+    private final AtomicLong queuedBytes = new AtomicLong();
+    private final AtomicLong lastExpiry = new AtomicLong(System.currentTimeMillis());
+
+    private final int capacity;
+    private final OverflowPolicy policy;
+    private final long idleTimeout;
 
-    private Map<String, ChannelQueue> queues = new HashMap<String, ChannelQueue>();
+    public ChannelQueueManager(int capacity, OverflowPolicy policy, long idleTimeout) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        if (policy == null)
+            throw new IllegalArgumentException("Null overflow policy!");
 
-    public static final ChannelQueueManager instance = new ChannelQueueManager(); // TODO: make this as it should be
+        this.capacity = capacity;
+        this.policy = policy;
+        this.idleTimeout = idleTimeout;
+    }
 
     public static ChannelQueueManager getInstance() {
         return instance;
@@ -50,13 +86,127 @@ public class ChannelQueueManager {
         return queues.get(channelToken);
     }
 
+    /**
+     * Get the channel's open queue for a client's poll.
+     * On the client's first connect to this node the token is checked,
+     * and this node is registered as the channel's connected node.
+     *
+     * @param channelToken the channel token
+     * @return the queue
+     * @throws NoSuchChannelException if there is no channel with the token
+     */
     public ChannelQueue createChannelQueue(String channelToken) {
-        Channel channel = ChannelManager.getInstance().getChannelByToken(channelToken);
-        channel.setConnectedNode(InfinispanUtils.getLocalNode(Application.getAppId()));
+        ChannelQueue queue = openChannelQueue(channelToken);
+        if (queue.getRegisteredAppId() != null) {
+            return queue;
+        }
+
+        final Channel channel;
+        try {
+            channel = ChannelManager.getInstance().getChannelByToken(channelToken);
+        } catch (NoSuchChannelException e) {
+            if (queue.getRegisteredAppId() == null && queues.remove(channelToken, queue)) {
+                queue.close();
+            }
+            throw e;
+        }
 
-        ChannelQueue queue = new ChannelQueue();
-        queues.put(channelToken, queue);
+        final String appId = Application.getAppId();
+        if (queue.register(appId)) {
+            Address previous = ConnectedNodeRegistry.register(channel);
+            if (previous != null && previous.equals(InfinispanUtils.getLocalNode(appId)) == false) {
+                // the client moved here, drop the queue it left behind
+                ClusterUtils.submitToNode(previous, new CloseChannelTask(appId, channelToken));
+            }
+        }
         return queue;
     }
 
+    /**
+     * Get the channel's open queue, creating a new one if needed.
+     * Messages pending from the client's previous connection are kept.
+     *
+     * @param channelToken the channel token
+     * @return the queue
+     */
+    public ChannelQueue openChannelQueue(String channelToken) {
+        expireIdleQueues(System.currentTimeMillis());
+
+        while (true) {
+            ChannelQueue queue = queues.get(channelToken);
+            if (queue != null && queue.isClosed() == false) {
+                return queue;
+            }
+            ChannelQueue newQueue = new ChannelQueue(capacity, policy, queuedBytes);
+            if (queue == null) {
+                if (queues.putIfAbsent(channelToken, newQueue) == null) {
+                    return newQueue;
+                }
+            } else if (queues.replace(channelToken, queue, newQueue)) {
+                return newQueue;
+            }
+        }
+    }
+
+    /**
+     * Close and remove the channel's queue.
+     *
+     * @param channelToken the channel token
+     */
+    public void removeChannelQueue(String channelToken) {
+        ChannelQueue queue = queues.remove(channelToken);
+        if (queue != null) {
+            queue.close();
+        }
+    }
+
+    void expireIdleQueues(long now) {
+        long last = lastExpiry.get();
+        if (now - last < idleTimeout / 2 || lastExpiry.compareAndSet(last, now) == false) {
+            return;
+        }
+
+        Iterator<Map.Entry<String, ChannelQueue>> it = queues.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, ChannelQueue> entry = it.next();
+            ChannelQueue queue = entry.getValue();
+            if (queue.isIdle(now, idleTimeout) && queues.remove(entry.getKey(), queue)) {
+                queue.close();
+                unregister(entry.getKey(), queue);
+            }
+        }
+    }
+
+    private static void unregister(String channelToken, ChannelQueue queue) {
+        String appId = queue.getRegisteredAppId();
+        if (appId != null) {
+            try {
+                ConnectedNodeRegistry.unregister(appId, channelToken);
+            } catch (Exception e) {
+                log.log(Level.WARNING, "Cannot unregister expired channel " + channelToken, e);
+            }
+        }
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return policy;
+    }
+
+    /**
+     * Gauge: number of live queues.
+     *
+     * @return the number of queues
+     */
+    public int getQueueCount() {
+        return queues.size();
+    }
+
+    /**
+     * Gauge: approximate heap size of all pending messages.
+     *
+     * @return queued bytes
+     */
+    public long getQueuedBytes() {
+        return queuedBytes.get();
+    }
 }
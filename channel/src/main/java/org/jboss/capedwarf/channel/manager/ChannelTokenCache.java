@@ -0,0 +1,79 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.capedwarf.channel.manager;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.jboss.capedwarf.common.shared.AppComponents;
+
+/**
+ * Node-local token to channel index.
+ *
+ * A token never changes its channel, so entries only go stale when the client id is given a new channel,
+ * which removes the old token on the creating node; elsewhere the old token still resolves,
+ * while messages only go to the client id's current channel.
+ * A missing entry only means a fallback to the datastore query.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+final class ChannelTokenCache {
+    private static final int MAX_ENTRIES = 10000;
+
+    private final Map<String, Channel> channels = new LinkedHashMap<String, Channel>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        protected boolean removeEldestEntry(Map.Entry<String, Channel> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    private static final AppComponents.Factory<ChannelTokenCache> FACTORY = new AppComponents.Factory<ChannelTokenCache>() {
+        protected ChannelTokenCache create() {
+            return new ChannelTokenCache();
+        }
+    };
+
+    static ChannelTokenCache getInstance(String appId) {
+        return AppComponents.getOrCreate(appId, ChannelTokenCache.class, FACTORY);
+    }
+
+    /**
+     * Get the token's channel.
+     *
+     * @param token the token
+     * @return a copy of the channel, or null if it's not cached
+     */
+    synchronized Channel get(String token) {
+        Channel channel = channels.get(token);
+        return (channel != null) ? new Channel(channel.getClientId(), channel.getExpirationTime(), token) : null;
+    }
+
+    synchronized void put(Channel channel) {
+        channels.put(channel.getToken(), new Channel(channel.getClientId(), channel.getExpirationTime(), channel.getToken()));
+    }
+
+    synchronized void remove(String token) {
+        channels.remove(token);
+    }
+}
@@ -31,19 +31,21 @@ import java.util.logging.Logger;
  */
 public class CloseChannelTask implements Callable<Void>, Serializable {
 
-    private final Logger log = Logger.getLogger(getClass().getName());
+    private static final Logger log = Logger.getLogger(CloseChannelTask.class.getName());
 
+    private String appId;
     private String channelToken;
 
-    public CloseChannelTask(String channelToken) {
+    public CloseChannelTask(String appId, String channelToken) {
+        this.appId = appId;
         this.channelToken = channelToken;
     }
 
     public Void call() throws Exception {
         if (ChannelQueueManager.getInstance().channelQueueExists(channelToken)) {
-            log.info("Obtaining channel connection for token " + channelToken);
-            ChannelQueue channelQueue = ChannelQueueManager.getInstance().getChannelQueue(channelToken);
-            channelQueue.close();
+            log.info("Closing channel queue for token " + channelToken);
+            ChannelQueueManager.getInstance().removeChannelQueue(channelToken);
+            ConnectedNodeRegistry.unregister(appId, channelToken);
         }
         return null;
     }
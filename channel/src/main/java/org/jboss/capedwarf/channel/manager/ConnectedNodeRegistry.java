@@ -0,0 +1,91 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.capedwarf.channel.manager;
+
+import java.util.concurrent.TimeUnit;
+
+import org.infinispan.Cache;
+import org.infinispan.remoting.transport.Address;
+import org.jboss.capedwarf.common.app.Application;
+import org.jboss.capedwarf.common.infinispan.CacheName;
+import org.jboss.capedwarf.common.infinispan.InfinispanUtils;
+
+/**
+ * Cluster-wide registry of the nodes holding channels' browser connections.
+ *
+ * Entries live in the distributed cache, so a lookup is a single hop to the key's owner,
+ * and they expire together with the channel.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+final class ConnectedNodeRegistry {
+    private static final String PREFIX = "channel_node_";
+
+    private ConnectedNodeRegistry() {
+    }
+
+    private static Cache<String, Address> getCache(String appId) {
+        return InfinispanUtils.getCache(appId, CacheName.DIST);
+    }
+
+    private static String toKey(String channelToken) {
+        return PREFIX + channelToken;
+    }
+
+    /**
+     * Register this node as the channel's connected node.
+     *
+     * @param channel the channel
+     * @return the previously connected node, or null
+     */
+    static Address register(Channel channel) {
+        long lifespan = channel.getExpirationTime() - System.currentTimeMillis();
+        if (lifespan > 0) {
+            String appId = Application.getAppId();
+            Address local = InfinispanUtils.getLocalNode(appId);
+            return getCache(appId).put(toKey(channel.getToken()), local, lifespan, TimeUnit.MILLISECONDS);
+        }
+        return null;
+    }
+
+    /**
+     * Unregister this node, unless the channel has already reconnected to another node.
+     *
+     * @param appId the app id
+     * @param channelToken the channel token
+     */
+    static void unregister(String appId, String channelToken) {
+        Address local = InfinispanUtils.getLocalNode(appId);
+        getCache(appId).remove(toKey(channelToken), local);
+    }
+
+    /**
+     * Get the connected node.
+     *
+     * @param channelToken the channel token
+     * @return node's address or null if the channel is not connected
+     */
+    static Address getConnectedNode(String channelToken) {
+        return getCache(Application.getAppId()).get(toKey(channelToken));
+    }
+}
@@ -1,6 +1,6 @@
 /*
  * JBoss, Home of Professional Open Source.
- * Copyright 2012, Red Hat, Inc., and individual contributors
+ * Copyright 2013, Red Hat, Inc., and individual contributors
  * as indicated by the @author tags. See the copyright.txt file in the
  * distribution for a full listing of individual contributors.
  *
@@ -20,22 +20,25 @@
  * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
  */
 
-package org.jboss.capedwarf.prospectivesearch;
-
-import org.infinispan.distexec.mapreduce.Collator;
-
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
-import java.util.Map;
-import java.util.Set;
+package org.jboss.capedwarf.channel.manager;
 
 /**
-* @author <a href="mailto:mluksa@redhat.com">Marko Luksa</a>
-*/
-class TopicsCollator implements Collator<String, Set<String>, List<String>> {
-    public List<String> collate(Map<String, Set<String>> reducedResults) {
-        Set<String> topics = reducedResults.get(TopicsMapper.KEY);
-        return topics == null ? Collections.<String>emptyList() : new ArrayList<String>(topics);
-    }
+ * What to do with a new message when the channel queue is full.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public enum OverflowPolicy {
+    /**
+     * Drop the oldest pending message.
+     */
+    DROP_OLDEST,
+    /**
+     * Drop the new message.
+     */
+    DROP_NEWEST,
+    /**
+     * Reject the new message, failing the send.
+     * The sender waits for the connected node's queue.
+     */
+    FAIL
 }
@@ -24,15 +24,12 @@ package org.jboss.capedwarf.channel.manager;
 
 import java.io.Serializable;
 import java.util.concurrent.Callable;
-import java.util.logging.Logger;
 
 /**
  * @author <a href="mailto:marko.luksa@gmail.com">Marko Luksa</a>
  */
 public class SendMessageTask implements Callable<Void>, Serializable {
 
-    private final Logger log = Logger.getLogger(getClass().getName());
-
     private String channelToken;
     private String message;
 
@@ -42,10 +39,8 @@ public class SendMessageTask implements Callable<Void>, Serializable {
     }
 
     public Void call() throws Exception {
-        if (ChannelQueueManager.getInstance().channelQueueExists(channelToken)) {
-            log.info("Obtaining channel connection for token " + channelToken);
-            ChannelQueue channelQueue = ChannelQueueManager.getInstance().getChannelQueue(channelToken);
-            log.info("Sending message " + message);
+        ChannelQueue channelQueue = ChannelQueueManager.getInstance().getChannelQueue(channelToken);
+        if (channelQueue != null) {
             channelQueue.send(message);
         }
         return null;
@@ -43,7 +43,7 @@ import java.util.logging.Logger;
 /**
  * @author <a href="mailto:marko.luksa@gmail.com">Marko Luksa</a>
  */
-@WebServlet(urlPatterns = ChannelServlet.SERVLET_URI + "/*")
+@WebServlet(urlPatterns = ChannelServlet.SERVLET_URI + "/*", asyncSupported = true)
 public class ChannelServlet extends HttpServlet {
 
     private final Logger log = Logger.getLogger(getClass().getName());
@@ -81,7 +81,7 @@ public class ChannelServlet extends HttpServlet {
     }
 
     private void serveChannelMessages(HttpServletRequest req, HttpServletResponse resp, String channelToken) throws IOException {
-        log.info("Opening channel queue for token " + channelToken);
+        log.fine("Opening channel queue for token " + channelToken);
 
         ChannelQueue queue;
         try {
@@ -29,53 +29,41 @@ import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.List;
-import java.util.logging.Logger;
 
 /**
  * @author <a href="mailto:marko.luksa@gmail.com">Marko Luksa</a>
  */
-public class LongIFrameChannelTransport extends AbstractTransport {
-
-    private final Logger log = Logger.getLogger(getClass().getName());
+public class LongIFrameChannelTransport extends AbstractTransport implements LongPoll.Handler {
 
     public LongIFrameChannelTransport(HttpServletRequest req, HttpServletResponse resp, String channelToken, ChannelQueue queue) {
         super(req, resp, channelToken, queue);
     }
 
     public void serveMessages() throws IOException {
-        log.info("Channel queue opened.");
         getResponse().setContentType("text/html");
         getResponse().setHeader("Transfer-Encoding", "chunked");
 
-        PrintWriter writer = getResponse().getWriter();
-
-        writeMessage(writer, getChannelToken(), "open", "");
+        writeMessage(getResponse().getWriter(), getChannelToken(), "open", "");
 
+        LongPoll.poll(getRequest(), getResponse(), getQueue(), MAX_CONNECTION_DURATION, this);
+    }
 
-        long startTime = System.currentTimeMillis();
-        while (true) {
-            long timeActive = System.currentTimeMillis() - startTime;
-            long timeLeft = MAX_CONNECTION_DURATION - timeActive;
-            if (timeLeft < 0) {
-                break;
-            }
-            try {
-                log.info("Waiting for message (for " + timeLeft + "ms)");
-                List<String> messages = getQueue().getPendingMessages(timeLeft);
-                for (String message : messages) {
-                    log.info("Received message " + message);
-                    writeMessage(writer, getChannelToken(), "message", message);
-                }
-            } catch (InterruptedException e) {
-                // ignored
-            }
+    public boolean onMessages(PrintWriter writer, List<String> messages) {
+        for (String message : messages) {
+            writeMessage(writer, getChannelToken(), "message", message);
         }
+        return true;
+    }
+
+    public void onClose(PrintWriter writer) {
+        writeMessage(writer, getChannelToken(), "close", "");
+    }
 
+    public void onTimeout(PrintWriter writer) {
         writeMessage(writer, getChannelToken(), "close", "");
     }
 
     private void writeMessage(PrintWriter writer, String channelToken, String type, String message) {
-        log.info("Sending message to browser: type=" + type + "; message=" + message);
         writer.println("<script language=\"JavaScript\" type=\"text/javascript\">");
         writer.println("parent.handleChannelMessage(\"" + channelToken + "\", \"" + type + "\", \"" + message + "\");");
         writer.println("</script>");
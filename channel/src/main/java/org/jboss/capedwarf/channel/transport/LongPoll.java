@@ -0,0 +1,185 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.capedwarf.channel.transport;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.List;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.jboss.capedwarf.channel.manager.ChannelQueue;
+import org.jboss.capedwarf.channel.manager.ChannelQueueClosedException;
+
+/**
+ * Long-poll on a channel queue.
+ *
+ * If the request supports it, the poll is asynchronous: the request is suspended,
+ * and a listener is parked on the queue until a message arrives or the poll times out,
+ * so idle channels don't hold any container thread.
+ * Otherwise the calling thread blocks on the queue.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+class LongPoll implements ChannelQueue.Listener, AsyncListener {
+
+    /**
+     * Writes poll events to the browser.
+     */
+    static interface Handler {
+        /**
+         * Write messages.
+         *
+         * @return true to keep polling, false to end the response
+         */
+        boolean onMessages(PrintWriter writer, List<String> messages);
+
+        void onClose(PrintWriter writer);
+
+        void onTimeout(PrintWriter writer);
+    }
+
+    private final ChannelQueue queue;
+    private final PrintWriter writer;
+    private final Handler handler;
+    private AsyncContext context;
+    private boolean done;
+
+    private LongPoll(ChannelQueue queue, PrintWriter writer, Handler handler) {
+        this.queue = queue;
+        this.writer = writer;
+        this.handler = handler;
+    }
+
+    static void poll(HttpServletRequest request, HttpServletResponse response, ChannelQueue queue, long timeout, Handler handler) throws IOException {
+        LongPoll poll = new LongPoll(queue, response.getWriter(), handler);
+        if (request.isAsyncSupported()) {
+            poll.start(request, response, timeout);
+        } else {
+            poll.block(timeout);
+        }
+    }
+
+    private void start(HttpServletRequest request, HttpServletResponse response, long timeout) {
+        synchronized (this) {
+            context = request.startAsync(request, response);
+            context.setTimeout(timeout);
+            context.addListener(this);
+        }
+        drain();
+    }
+
+    private void block(long timeout) {
+        long deadline = System.currentTimeMillis() + timeout;
+        while (true) {
+            long timeLeft = deadline - System.currentTimeMillis();
+            if (timeLeft < 0) {
+                handler.onTimeout(writer);
+                return;
+            }
+            try {
+                List<String> messages = queue.getPendingMessages(timeLeft);
+                if (messages.isEmpty() == false && handler.onMessages(writer, messages) == false) {
+                    return;
+                }
+            } catch (ChannelQueueClosedException ex) {
+                handler.onClose(writer);
+                return;
+            } catch (InterruptedException e) {
+                // ignored
+            }
+        }
+    }
+
+    private synchronized void drain() {
+        while (done == false) {
+            List<String> messages;
+            try {
+                messages = queue.drainMessages();
+            } catch (ChannelQueueClosedException ex) {
+                handler.onClose(writer);
+                complete();
+                return;
+            }
+
+            if (messages.isEmpty()) {
+                if (queue.park(this)) {
+                    return;
+                }
+            } else if (handler.onMessages(writer, messages) == false) {
+                complete();
+                return;
+            }
+        }
+    }
+
+    private void complete() {
+        done = true;
+        context.complete();
+    }
+
+    public void onEvent() {
+        final AsyncContext ctx;
+        synchronized (this) {
+            if (done) {
+                return;
+            }
+            ctx = context;
+        }
+        try {
+            // don't write to the browser from the sender's thread
+            ctx.start(new Runnable() {
+                public void run() {
+                    drain();
+                }
+            });
+        } catch (IllegalStateException ignored) {
+            // completed in the meantime
+        }
+    }
+
+    public synchronized void onTimeout(AsyncEvent event) throws IOException {
+        if (done == false) {
+            queue.unpark(this);
+            handler.onTimeout(writer);
+            complete();
+        }
+    }
+
+    public synchronized void onError(AsyncEvent event) throws IOException {
+        queue.unpark(this);
+        done = true;
+    }
+
+    public synchronized void onComplete(AsyncEvent event) throws IOException {
+        queue.unpark(this);
+        done = true;
+    }
+
+    public void onStartAsync(AsyncEvent event) throws IOException {
+    }
+}
@@ -23,7 +23,6 @@
 package org.jboss.capedwarf.channel.transport;
 
 import org.jboss.capedwarf.channel.manager.ChannelQueue;
-import org.jboss.capedwarf.channel.manager.ChannelQueueClosedException;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -35,7 +34,7 @@ import java.util.logging.Logger;
 /**
  * @author <a href="mailto:marko.luksa@gmail.com">Marko Luksa</a>
  */
-public class SuccessiveXmlHttpChannelTransport extends AbstractTransport {
+public class SuccessiveXmlHttpChannelTransport extends AbstractTransport implements LongPoll.Handler {
 
     private final Logger log = Logger.getLogger(getClass().getName());
 
@@ -44,18 +43,15 @@ public class SuccessiveXmlHttpChannelTransport extends AbstractTransport {
     }
 
     public void serveMessages() throws IOException {
-        log.info("Channel queue opened.");
         getResponse().setContentType("text/javascript");
         getResponse().setHeader("Transfer-Encoding", "chunked");
 
-        PrintWriter writer = getResponse().getWriter();
-
         if (isFirstRequest()) {
-            writeOpenMessage(writer);
+            writeOpenMessage(getResponse().getWriter());
             return;
         }
 
-        serveMessages(writer);
+        LongPoll.poll(getRequest(), getResponse(), getQueue(), MAX_CONNECTION_DURATION, this);
     }
 
     private boolean isFirstRequest() {
@@ -63,37 +59,19 @@ public class SuccessiveXmlHttpChannelTransport extends AbstractTransport {
         return requestIndex == 0;
     }
 
-    private void serveMessages(PrintWriter writer) {
-        long startTime = System.currentTimeMillis();
-        while (true) {
-            long timeActive = System.currentTimeMillis() - startTime;
-            long timeLeft = MAX_CONNECTION_DURATION - timeActive;
-            if (timeLeft < 0) {
-                return;
-            }
-
-            try {
-                log.info("Waiting for message (for " + timeLeft + "ms)");
-                List<String> messages = getQueue().getPendingMessages(timeLeft);
-                if (!messages.isEmpty()) {
-                    writeMessages(writer, messages);
-                    return;
-                }
-            } catch (ChannelQueueClosedException ex) {
-                log.info("Channel closed: " + getChannelToken());
-                writeCloseMessage(writer);
-                return;
-            } catch (InterruptedException e) {
-                // ignored
-            }
-        }
-    }
-
-    private void writeMessages(PrintWriter writer, List<String> messages) {
+    public boolean onMessages(PrintWriter writer, List<String> messages) {
         for (String message : messages) {
-            log.info("Received message " + message);
             writeMessage(writer, getChannelToken(), "message", message);
         }
+        return false;
+    }
+
+    public void onClose(PrintWriter writer) {
+        log.fine("Channel closed: " + getChannelToken());
+        writeCloseMessage(writer);
+    }
+
+    public void onTimeout(PrintWriter writer) {
     }
 
     private void writeOpenMessage(PrintWriter writer) {
@@ -105,7 +83,6 @@ public class SuccessiveXmlHttpChannelTransport extends AbstractTransport {
     }
 
     private void writeMessage(PrintWriter writer, String channelToken, String type, String message) {
-        log.info("Sending message to browser: type=" + type + "; message=" + message);
         writer.println("handleChannelMessage(\"" + channelToken + "\", \"" + type + "\", \"" + message + "\");");
         writer.flush();
     }
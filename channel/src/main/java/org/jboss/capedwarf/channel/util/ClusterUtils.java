@@ -22,10 +22,16 @@
 
 package org.jboss.capedwarf.channel.util;
 
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
+import org.infinispan.Cache;
 import org.infinispan.remoting.transport.Address;
 import org.jboss.capedwarf.common.app.Application;
+import org.jboss.capedwarf.common.infinispan.CacheName;
 import org.jboss.capedwarf.common.infinispan.InfinispanUtils;
 
 /**
@@ -43,7 +49,14 @@ public class ClusterUtils {
     }
 
     public static boolean isStandalone() {
-        return true;    // TODO
+        List<Address> members = getMembers();
+        return members == null || members.size() <= 1;
+    }
+
+    private static List<Address> getMembers() {
+        final String appId = Application.getAppId();
+        Cache<Object, Object> cache = InfinispanUtils.getCache(appId, CacheName.DIST);
+        return cache.getCacheManager().getMembers();
     }
 
     private static void executeLocally(Callable<Void> task) {
@@ -61,8 +74,64 @@ public class ClusterUtils {
         InfinispanUtils.everywhere(appId, task);
     }
 
+    /**
+     * Submit the task to a single node,
+     * falling back to all nodes if the node is unknown or has left the cluster.
+     *
+     * @param nodeAddress the node's address, can be null
+     * @param task the task
+     */
     public static void submitToNode(Address nodeAddress, Callable<Void> task) {
+        if (isStandalone()) {
+            executeLocally(task);
+        } else if (nodeAddress == null || getMembers().contains(nodeAddress) == false) {
+            executeOnAllNodes(task);
+        } else {
+            final String appId = Application.getAppId();
+            InfinispanUtils.single(appId, task, nodeAddress);
+        }
+    }
+
+    /**
+     * Execute the task on a single node, and wait for it to finish.
+     * Falls back to all nodes if the node is unknown or has left the cluster.
+     *
+     * @param nodeAddress the node's address, can be null
+     * @param task the task
+     * @throws RuntimeException the task's failure
+     */
+    public static void executeOnNode(Address nodeAddress, Callable<Void> task) {
+        if (isStandalone()) {
+            executeLocally(task);
+            return;
+        }
+
         final String appId = Application.getAppId();
-        InfinispanUtils.single(appId, task, nodeAddress);
+        final List<Future<Void>> futures;
+        if (nodeAddress == null || getMembers().contains(nodeAddress) == false) {
+            futures = InfinispanUtils.everywhere(appId, task);
+        } else {
+            futures = Collections.singletonList(InfinispanUtils.single(appId, task, nodeAddress));
+        }
+        for (Future<Void> future : futures) {
+            waitFor(future);
+        }
+    }
+
+    private static void waitFor(Future<Void> future) {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for cluster task.", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        }
     }
 }
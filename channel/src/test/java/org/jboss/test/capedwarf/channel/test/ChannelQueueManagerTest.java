@@ -0,0 +1,136 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.test.capedwarf.channel.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.appengine.api.channel.ChannelFailureException;
+import org.jboss.capedwarf.channel.manager.ChannelQueue;
+import org.jboss.capedwarf.channel.manager.ChannelQueueManager;
+import org.jboss.capedwarf.channel.manager.OverflowPolicy;
+import org.jboss.test.capedwarf.common.support.JBoss;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+@Category(JBoss.class)
+public class ChannelQueueManagerTest {
+
+    @Test
+    public void testOpenAndCloseManyChannelsConcurrently() throws Exception {
+        final ChannelQueueManager manager = new ChannelQueueManager(10, OverflowPolicy.DROP_OLDEST, 60000);
+        final int channels = 100000;
+        final AtomicInteger next = new AtomicInteger();
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (int t = 0; t < 8; t++) {
+                futures.add(executor.submit(new Callable<Void>() {
+                    public Void call() throws Exception {
+                        int i;
+                        while ((i = next.getAndIncrement()) < channels) {
+                            String token = "token" + i;
+                            ChannelQueue queue = manager.openChannelQueue(token);
+                            queue.send("first");
+                            assertSame(queue, manager.openChannelQueue(token));
+                            assertEquals(Arrays.asList("first"), manager.getChannelQueue(token).drainMessages());
+                            queue.send("second");
+                            manager.removeChannelQueue(token);
+                            assertTrue(queue.isClosed());
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(0, manager.getQueueCount());
+        assertEquals(0, manager.getQueuedBytes());
+    }
+
+    @Test
+    public void testDropOldest() throws Exception {
+        ChannelQueueManager manager = new ChannelQueueManager(2, OverflowPolicy.DROP_OLDEST, 60000);
+        ChannelQueue queue = manager.openChannelQueue("token");
+        queue.send("a");
+        queue.send("b");
+        queue.send("c");
+        assertEquals(4, manager.getQueuedBytes());
+        assertEquals(Arrays.asList("b", "c"), queue.drainMessages());
+        assertEquals(0, manager.getQueuedBytes());
+    }
+
+    @Test
+    public void testDropNewest() throws Exception {
+        ChannelQueueManager manager = new ChannelQueueManager(2, OverflowPolicy.DROP_NEWEST, 60000);
+        ChannelQueue queue = manager.openChannelQueue("token");
+        queue.send("a");
+        queue.send("b");
+        queue.send("c");
+        assertEquals(Arrays.asList("a", "b"), queue.drainMessages());
+    }
+
+    @Test(expected = ChannelFailureException.class)
+    public void testFail() throws Exception {
+        ChannelQueueManager manager = new ChannelQueueManager(1, OverflowPolicy.FAIL, 60000);
+        ChannelQueue queue = manager.openChannelQueue("token");
+        queue.send("a");
+        queue.send("b");
+    }
+
+    @Test
+    public void testIdleQueuesExpire() throws Exception {
+        ChannelQueueManager manager = new ChannelQueueManager(10, OverflowPolicy.DROP_OLDEST, 10);
+        ChannelQueue idle = manager.openChannelQueue("idle");
+        idle.send("a");
+        Thread.sleep(50);
+
+        manager.openChannelQueue("active");
+        assertNull(manager.getChannelQueue("idle"));
+        assertTrue(idle.isClosed());
+        assertFalse(manager.getChannelQueue("active").isClosed());
+        assertEquals(1, manager.getQueueCount());
+        assertEquals(0, manager.getQueuedBytes());
+    }
+}
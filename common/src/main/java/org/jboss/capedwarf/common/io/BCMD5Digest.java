@@ -22,12 +22,16 @@
 
 package org.jboss.capedwarf.common.io;
 
+import java.nio.ByteBuffer;
+
 import org.bouncycastle.crypto.digests.MD5Digest;
 
 /**
  * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
  */
 class BCMD5Digest extends AbstractDigest {
+    private static final int CHUNK_SIZE = 4096;
+
     private MD5Digest digest;
     private byte[] state;
 
@@ -66,4 +70,19 @@ class BCMD5Digest extends AbstractDigest {
     public void update(byte[] bytes) {
         getDigest().update(bytes, 0, bytes.length);
     }
+
+    public void update(ByteBuffer buffer) {
+        final MD5Digest md = getDigest();
+        if (buffer.hasArray()) {
+            md.update(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            buffer.position(buffer.limit());
+        } else {
+            final byte[] bytes = new byte[Math.min(buffer.remaining(), CHUNK_SIZE)];
+            while (buffer.hasRemaining()) {
+                int length = Math.min(buffer.remaining(), bytes.length);
+                buffer.get(bytes, 0, length);
+                md.update(bytes, 0, length);
+            }
+        }
+    }
 }
@@ -22,6 +22,8 @@
 
 package org.jboss.capedwarf.common.io;
 
+import java.nio.ByteBuffer;
+
 /**
  * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
  */
@@ -30,5 +32,13 @@ public interface Digest {
 
     void update(byte[] bytes);
 
+    /**
+     * Update digest with buffer's remaining bytes.
+     * The buffer's position is advanced to its limit.
+     *
+     * @param buffer the buffer
+     */
+    void update(ByteBuffer buffer);
+
     DigestResult digest();
 }
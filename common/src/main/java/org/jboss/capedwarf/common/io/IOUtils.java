@@ -22,7 +22,6 @@
 
 package org.jboss.capedwarf.common.io;
 
-import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
 import java.io.EOFException;
 import java.io.IOException;
@@ -31,12 +30,16 @@ import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
 
 /**
  * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
  * @author <a href="mailto:mluksa@redhat.com">Marko Luksa</a>
  */
 public class IOUtils {
+    private static final int BUFFER_SIZE = 8192;
+    private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
     /**
      * Get new digest instance.
      *
@@ -87,23 +90,75 @@ public class IOUtils {
      * @throws IOException for any IO error
      */
     public static byte[] toBytes(InputStream is, long start, long end, boolean closeStream) throws IOException {
+        return toBytes(is, start, end, -1, closeStream);
+    }
+
+    /**
+     * Get bytes from input stream.
+     * <p/>
+     * The result buffer is pre-sized from the size hint and filled with bulk reads,
+     * so the common case of a known length (blob size, Content-Length) needs no re-allocation.
+     *
+     * @param is          the input stream
+     * @param size        the expected number of bytes, or negative if unknown
+     * @param closeStream should we close the stream
+     * @return bytes
+     * @throws IOException for any IO error
+     */
+    public static byte[] toBytes(InputStream is, long size, boolean closeStream) throws IOException {
+        return toBytes(is, 0, Long.MAX_VALUE, size, closeStream);
+    }
+
+    /**
+     * Get bytes from input stream.
+     *
+     * @param is          the input stream
+     * @param start       the start
+     * @param end         the end (inclusive)
+     * @param size        the expected number of bytes, or negative if unknown
+     * @param closeStream should we close the stream
+     * @return bytes
+     * @throws IOException for any IO error
+     */
+    public static byte[] toBytes(InputStream is, long start, long end, long size, boolean closeStream) throws IOException {
         try {
             skipFully(is, start);
-            end -= start;
-
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            int b;
-            while ((b = is.read()) != -1 && end >= 0) {
-                end--;
-                baos.write(b);
-            }
-            return baos.toByteArray();
+            final long length = (end - start < Long.MAX_VALUE) ? end - start + 1 : Long.MAX_VALUE;
+            return readBytes(is, length, size);
         } finally {
             if (closeStream)
                 safeClose(is);
         }
     }
 
+    private static byte[] readBytes(InputStream is, long length, long size) throws IOException {
+        long capacity = (size >= 0) ? Math.min(size, length) : Math.min(BUFFER_SIZE, length);
+        byte[] buffer = new byte[(int) Math.min(capacity, MAX_ARRAY_SIZE)];
+        int count = 0;
+        while (count < length) {
+            if (count == buffer.length) {
+                // size hint exhausted, probe before growing
+                int b = is.read();
+                if (b == -1) {
+                    return buffer;
+                }
+                if (count == MAX_ARRAY_SIZE) {
+                    throw new IOException("Stream too large to fit into byte array.");
+                }
+                long newCapacity = Math.min(Math.max(2L * count, BUFFER_SIZE), Math.min(length, MAX_ARRAY_SIZE));
+                buffer = Arrays.copyOf(buffer, (int) newCapacity);
+                buffer[count++] = (byte) b;
+                continue;
+            }
+            int n = is.read(buffer, count, (int) Math.min(buffer.length - count, length - count));
+            if (n == -1) {
+                break;
+            }
+            count += n;
+        }
+        return (count == buffer.length) ? buffer : Arrays.copyOf(buffer, count);
+    }
+
     /**
      * Copy stream.
      *
@@ -112,7 +167,7 @@ public class IOUtils {
      * @throws IOException for any IO error
      */
     public static void copyStream(final InputStream in, final OutputStream out) throws IOException {
-        final byte[] bytes = new byte[8192];
+        final byte[] bytes = new byte[BUFFER_SIZE];
         int cnt;
         while ((cnt = in.read(bytes)) != -1) {
             out.write(bytes, 0, cnt);
@@ -168,7 +223,7 @@ public class IOUtils {
     }
 
     public static void copyStreamBounded(InputStream in, OutputStream out, long length) throws IOException {
-        final byte[] bytes = new byte[8192];
+        final byte[] bytes = new byte[BUFFER_SIZE];
         long totalCount = 0;
         while (totalCount < length) {
             int len = (int) Math.min(bytes.length, length - totalCount);
@@ -22,6 +22,7 @@
 
 package org.jboss.capedwarf.common.io;
 
+import java.nio.ByteBuffer;
 import java.security.MessageDigest;
 
 /**
@@ -50,4 +51,8 @@ class JDKDigest extends AbstractDigest {
     public void update(byte[] bytes) {
         digest.update(bytes);
     }
+
+    public void update(ByteBuffer buffer) {
+        digest.update(buffer);
+    }
 }
@@ -90,6 +90,16 @@ public abstract class AbstractHttpServletRequest extends AbstractServletRequest
         parts.put(name, part);
     }
 
+    @Override
+    public String getContentType() {
+        for (Map.Entry<String, Set<String>> entry : headers.entrySet()) {
+            if ("content-type".equalsIgnoreCase(entry.getKey()) && entry.getValue().isEmpty() == false) {
+                return entry.getValue().iterator().next();
+            }
+        }
+        return null;
+    }
+
     public String getAuthType() {
         return null;  // TODO
     }
@@ -0,0 +1,82 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.capedwarf.common.shared;
+
+import org.jboss.capedwarf.shared.components.ComponentRegistry;
+import org.jboss.capedwarf.shared.components.Key;
+import org.jboss.capedwarf.shared.components.SimpleKey;
+
+/**
+ * Per-app components, created on first use.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public final class AppComponents {
+    private AppComponents() {
+    }
+
+    /**
+     * Get the app's component, creating it if there is none, or if the registered one is no longer valid.
+     * Creation is serialized per component type.
+     *
+     * @param appId the app id
+     * @param type the component type
+     * @param factory the component factory
+     * @return the component
+     */
+    public static <T> T getOrCreate(String appId, Class<T> type, Factory<T> factory) {
+        final ComponentRegistry registry = ComponentRegistry.getInstance();
+        final Key<T> key = new SimpleKey<T>(appId, type);
+
+        T component = registry.getComponent(key);
+        if (component == null || factory.isValid(component) == false) {
+            synchronized (type) {
+                component = registry.getComponent(key);
+                if (component == null || factory.isValid(component) == false) {
+                    component = factory.create();
+                    registry.setComponent(key, component);
+                }
+            }
+        }
+        return component;
+    }
+
+    public abstract static class Factory<T> {
+        /**
+         * Create the component.
+         *
+         * @return new component
+         */
+        protected abstract T create();
+
+        /**
+         * Can the registered component still be used.
+         *
+         * @param component the registered component
+         * @return true by default
+         */
+        protected boolean isValid(T component) {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.capedwarf.common.threads;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Per-app cleanup, run once the app is undeployed.
+ * Pools shared by all apps live as long as the container and don't register hooks.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public final class UndeployHooks {
+    private static final Logger log = Logger.getLogger(UndeployHooks.class.getName());
+
+    private static final Map<String, List<Runnable>> hooks = new HashMap<String, List<Runnable>>();
+
+    private UndeployHooks() {
+    }
+
+    /**
+     * Add app's hook.
+     *
+     * @param appId the app id
+     * @param hook the hook
+     */
+    public static synchronized void add(String appId, Runnable hook) {
+        List<Runnable> list = hooks.get(appId);
+        if (list == null) {
+            list = new ArrayList<Runnable>();
+            hooks.put(appId, list);
+        }
+        list.add(hook);
+    }
+
+    /**
+     * Run and forget app's hooks.
+     *
+     * @param appId the undeployed app id
+     */
+    public static void run(String appId) {
+        final List<Runnable> current;
+        synchronized (UndeployHooks.class) {
+            current = hooks.remove(appId);
+        }
+        if (current == null) {
+            return;
+        }
+        for (Runnable hook : current) {
+            try {
+                hook.run();
+            } catch (Throwable t) {
+                log.log(Level.WARNING, "Error running undeploy hook " + hook + " [" + appId + "]", t);
+            }
+        }
+    }
+}
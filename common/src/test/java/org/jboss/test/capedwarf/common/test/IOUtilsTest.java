@@ -0,0 +1,111 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.test.capedwarf.common.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import org.jboss.capedwarf.common.io.IOUtils;
+import org.jboss.test.capedwarf.common.support.JBoss;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+@Category(JBoss.class)
+public class IOUtilsTest {
+
+    @Test
+    public void testSizeHintTooSmall() throws Exception {
+        byte[] data = data(100);
+        assertArrayEquals(data, IOUtils.toBytes(stream(data), 2, true));
+    }
+
+    @Test
+    public void testExactSizeHint() throws Exception {
+        byte[] data = data(100);
+        assertArrayEquals(data, IOUtils.toBytes(stream(data), 100, true));
+    }
+
+    @Test
+    public void testSizeHintTooLarge() throws Exception {
+        byte[] data = data(100);
+        assertArrayEquals(data, IOUtils.toBytes(stream(data), 1000, true));
+    }
+
+    @Test
+    public void testUnknownSize() throws Exception {
+        byte[] data = data(20000); // more than one internal buffer
+        assertArrayEquals(data, IOUtils.toBytes(stream(data), -1, true));
+        assertArrayEquals(data, IOUtils.toBytes(stream(data), true));
+    }
+
+    @Test
+    public void testRange() throws Exception {
+        byte[] data = data(100);
+        byte[] expected = Arrays.copyOfRange(data, 10, 20);
+        assertArrayEquals(expected, IOUtils.toBytes(stream(data), 10, 19, 10, true));
+        assertArrayEquals(expected, IOUtils.toBytes(stream(data), 10, 19, 2, true));
+        assertArrayEquals(expected, IOUtils.toBytes(stream(data), 10, 19, 1000, true));
+        assertArrayEquals(expected, IOUtils.toBytes(stream(data), 10, 19, -1, true));
+    }
+
+    @Test
+    public void testRangePastEnd() throws Exception {
+        byte[] data = data(100);
+        assertArrayEquals(Arrays.copyOfRange(data, 90, 100), IOUtils.toBytes(stream(data), 90, 199, 110, true));
+    }
+
+    @Test
+    public void testEmptyStream() throws Exception {
+        assertEquals(0, IOUtils.toBytes(stream(new byte[0]), 0, true).length);
+        assertEquals(0, IOUtils.toBytes(stream(new byte[0]), 10, true).length);
+        assertEquals(0, IOUtils.toBytes(stream(new byte[0]), -1, true).length);
+    }
+
+    private static byte[] data(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (i * 31);
+        }
+        return data;
+    }
+
+    /**
+     * Returns at most a few bytes per read, like a network stream.
+     */
+    private static InputStream stream(byte[] data) {
+        return new ByteArrayInputStream(data) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, 7));
+            }
+        };
+    }
+}
@@ -202,6 +202,10 @@ public abstract class AbstractDatastoreService implements BaseDatastoreService,
         return getDelegate().getAllEntitiesIterator();
     }
 
+    public Iterator<Entity> getAllEntitiesIterator(int shard, int shards) {
+        return getDelegate().getAllEntitiesIterator(shard, shards);
+    }
+
     /**
      * Testing only!
      */
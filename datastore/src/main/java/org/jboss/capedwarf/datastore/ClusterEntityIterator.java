@@ -0,0 +1,157 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.capedwarf.datastore;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Future;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import com.google.common.base.Predicate;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+import org.infinispan.AdvancedCache;
+import org.infinispan.distribution.DistributionManager;
+import org.infinispan.distribution.ch.ConsistentHash;
+import org.infinispan.remoting.transport.Address;
+import org.jboss.capedwarf.common.infinispan.InfinispanUtils;
+import org.jboss.capedwarf.common.util.Util;
+
+/**
+ * Iterate over all entities in the cluster.
+ *
+ * Each node lists the keys of its primary owned segments in a single pass, ordered by segment.
+ * Their entities are then read from that node in batches, one batch ahead,
+ * so only a batch or two of entities is held in memory at a time.
+ * Optional sharding splits the segments into disjoint ranges, so the export can run in parallel.
+ *
+ * The export is not a snapshot; entities modified or moved by rebalance during export may be missed.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+class ClusterEntityIterator implements Iterator<Entity> {
+    private static final int BATCH_SIZE = Integer.getInteger("jboss.capedwarf.datastore.exportBatchSize", 1000);
+
+    private final String appId;
+    private final Iterator<Owner> owners;
+    private Address owner;
+    private Iterator<List<Key>> batches = Collections.<List<Key>>emptyList().iterator();
+    private Future<List<Entity>> next;
+    private Iterator<Entity> current = Collections.<Entity>emptyList().iterator();
+
+    private ClusterEntityIterator(String appId, List<Owner> owners) {
+        this.appId = appId;
+        this.owners = owners.iterator();
+        this.next = submitNext();
+    }
+
+    static Iterator<Entity> create(String appId, AdvancedCache<Key, Entity> store, final int shard, final int shards) {
+        DistributionManager dm = store.getDistributionManager();
+        if (dm == null) {
+            // not distributed, every node has all the entities
+            Iterator<Entity> entities = store.values().iterator();
+            if (shards <= 1) {
+                return entities;
+            }
+            return Iterators.filter(entities, new Predicate<Entity>() {
+                public boolean apply(Entity entity) {
+                    return (entity.getKey().hashCode() & Integer.MAX_VALUE) % shards == shard;
+                }
+            });
+        }
+
+        ConsistentHash ch = dm.getReadConsistentHash();
+        Map<Address, List<Integer>> segmentsByOwner = new LinkedHashMap<Address, List<Integer>>();
+        for (int segment = shard; segment < ch.getNumSegments(); segment += shards) {
+            Address address = ch.locatePrimaryOwnerForSegment(segment);
+            List<Integer> segments = segmentsByOwner.get(address);
+            if (segments == null) {
+                segments = new ArrayList<Integer>();
+                segmentsByOwner.put(address, segments);
+            }
+            segments.add(segment);
+        }
+        List<Owner> owners = new ArrayList<Owner>();
+        for (Map.Entry<Address, List<Integer>> entry : segmentsByOwner.entrySet()) {
+            owners.add(new Owner(entry.getKey(), entry.getValue()));
+        }
+        return new ClusterEntityIterator(appId, owners);
+    }
+
+    private Future<List<Entity>> submitNext() {
+        while (batches.hasNext() == false) {
+            if (owners.hasNext() == false) {
+                return null;
+            }
+            Owner next = owners.next();
+            List<Key> keys = Util.quietGet(InfinispanUtils.single(appId, new ExportKeysTask(appId, next.segments), next.address));
+            owner = next.address;
+            batches = Lists.partition(keys, BATCH_SIZE).iterator();
+        }
+        // sublists aren't serializable
+        ArrayList<Key> batch = new ArrayList<Key>(batches.next());
+        return InfinispanUtils.single(appId, new ExportEntitiesTask(appId, batch), owner);
+    }
+
+    public boolean hasNext() {
+        while (current.hasNext() == false) {
+            if (next == null) {
+                return false;
+            }
+            List<Entity> entities = Util.quietGet(next);
+            next = submitNext();
+            current = entities.iterator();
+        }
+        return true;
+    }
+
+    public Entity next() {
+        if (hasNext() == false) {
+            throw new NoSuchElementException();
+        }
+        return current.next();
+    }
+
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    private static class Owner {
+        private final Address address;
+        private final int[] segments;
+
+        private Owner(Address address, List<Integer> list) {
+            this.address = address;
+            this.segments = new int[list.size()];
+            for (int i = 0; i < segments.length; i++) {
+                segments[i] = list.get(i);
+            }
+        }
+    }
+}
@@ -26,6 +26,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -356,9 +357,18 @@ class DatastoreServiceImpl extends BaseDatastoreServiceImpl implements Datastore
     }
 
     private void doPut(List<Tuple> keyToEntityMap, Runnable post) {
-        for (Tuple tuple : keyToEntityMap) {
+        if (keyToEntityMap.size() == 1) {
+            Tuple tuple = keyToEntityMap.get(0);
             putEntityGroupKey(tuple.key);
             ignoreReturnStore.put(tuple.key, tuple.entity);
+        } else {
+            // single cache command for the whole batch
+            Map<Key, Entity> map = new LinkedHashMap<Key, Entity>();
+            for (Tuple tuple : keyToEntityMap) {
+                putEntityGroupKey(tuple.key);
+                map.put(tuple.key, tuple.entity);
+            }
+            ignoreReturnStore.putAll(map);
         }
         if (post != null) {
             post.run();
@@ -375,7 +385,14 @@ class DatastoreServiceImpl extends BaseDatastoreServiceImpl implements Datastore
     }
 
     public Iterator<Entity> getAllEntitiesIterator() {
-        return store.values().iterator();   // TODO: temp impl, which only returns entities on current node
+        return getAllEntitiesIterator(0, 1);
+    }
+
+    public Iterator<Entity> getAllEntitiesIterator(int shard, int shards) {
+        if (shard < 0 || shards < 1 || shard >= shards) {
+            throw new IllegalArgumentException("Invalid shard: " + shard + "/" + shards);
+        }
+        return ClusterEntityIterator.create(appId, store, shard, shards);
     }
 
     /**
@@ -147,10 +147,20 @@ interface DatastoreServiceInternal extends BaseDatastoreService {
     /**
      * Returns an iterator over all the entities in the datastore. Only used for exporting entities.
      *
-     * @return all local entities
+     * @return all entities in the cluster
      */
     Iterator<Entity> getAllEntitiesIterator();
 
+    /**
+     * Returns an iterator over a disjoint part of all the entities in the datastore.
+     * Iterators of shards 0 .. shards - 1 together cover all the entities. Only used for exporting entities.
+     *
+     * @param shard the shard
+     * @param shards number of shards
+     * @return shard's entities
+     */
+    Iterator<Entity> getAllEntitiesIterator(int shard, int shards);
+
     /**
      * Clear cache.
      */
@@ -0,0 +1,71 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.capedwarf.datastore;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import org.infinispan.AdvancedCache;
+import org.infinispan.context.Flag;
+import org.jboss.capedwarf.common.infinispan.CacheName;
+import org.jboss.capedwarf.common.infinispan.InfinispanUtils;
+
+/**
+ * Read a batch of entities listed by ExportKeysTask on this node.
+ * Entities removed or moved away since are skipped.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+class ExportEntitiesTask implements Callable<List<Entity>>, Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final String appId;
+    private final ArrayList<Key> keys;
+
+    ExportEntitiesTask(String appId, ArrayList<Key> keys) {
+        this.appId = appId;
+        this.keys = keys;
+    }
+
+    public List<Entity> call() throws Exception {
+        AdvancedCache<Object, Object> cache = InfinispanUtils.getCache(appId, CacheName.DEFAULT).getAdvancedCache();
+        AdvancedCache<Object, Object> local = cache.withFlags(Flag.CACHE_MODE_LOCAL, Flag.SKIP_CACHE_LOAD);
+        List<Entity> entities = new ArrayList<Entity>(keys.size());
+        for (Key key : keys) {
+            Object value = local.get(key);
+            if (value instanceof Entity) {
+                entities.add((Entity) value);
+            }
+        }
+        return entities;
+    }
+
+    @Override
+    public String toString() {
+        return "ExportEntitiesTask[" + appId + "]" + keys.size();
+    }
+}
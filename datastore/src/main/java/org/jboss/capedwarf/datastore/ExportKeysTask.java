@@ -0,0 +1,95 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.capedwarf.datastore;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import com.google.appengine.api.datastore.Key;
+import org.infinispan.AdvancedCache;
+import org.infinispan.distribution.DistributionManager;
+import org.infinispan.distribution.ch.ConsistentHash;
+import org.infinispan.remoting.transport.Address;
+import org.jboss.capedwarf.common.infinispan.CacheName;
+import org.jboss.capedwarf.common.infinispan.InfinispanUtils;
+
+/**
+ * List the keys of given segments, which are primary owned by this node, ordered by segment.
+ * The data container is walked once, whatever the number of segments.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+class ExportKeysTask implements Callable<List<Key>>, Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final String appId;
+    private final int[] segments;
+
+    ExportKeysTask(String appId, int[] segments) {
+        this.appId = appId;
+        this.segments = segments;
+    }
+
+    @SuppressWarnings("unchecked")
+    public List<Key> call() throws Exception {
+        AdvancedCache<Object, Object> cache = InfinispanUtils.getCache(appId, CacheName.DEFAULT).getAdvancedCache();
+        DistributionManager dm = cache.getDistributionManager();
+        ConsistentHash ch = dm.getReadConsistentHash();
+        Address self = cache.getRpcManager().getAddress();
+
+        List<Key>[] buckets = new List[ch.getNumSegments()];
+        for (int segment : segments) {
+            // only primary owner exports, so nothing is exported twice if topology changed meanwhile
+            if (self.equals(ch.locatePrimaryOwnerForSegment(segment))) {
+                buckets[segment] = new ArrayList<Key>();
+            }
+        }
+
+        int count = 0;
+        for (Object key : cache.getDataContainer().keySet()) {
+            if (key instanceof Key) {
+                List<Key> bucket = buckets[ch.getSegment(key)];
+                if (bucket != null) {
+                    bucket.add((Key) key);
+                    count++;
+                }
+            }
+        }
+
+        List<Key> keys = new ArrayList<Key>(count);
+        for (List<Key> bucket : buckets) {
+            if (bucket != null) {
+                keys.addAll(bucket);
+            }
+        }
+        return keys;
+    }
+
+    @Override
+    public String toString() {
+        return "ExportKeysTask[" + appId + "]" + Arrays.toString(segments);
+    }
+}
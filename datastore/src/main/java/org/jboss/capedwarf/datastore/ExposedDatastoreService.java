@@ -34,5 +34,6 @@ import com.google.appengine.api.datastore.Entity;
 public interface ExposedDatastoreService extends DatastoreService {
     DatastoreServiceConfig getDatastoreServiceConfig();
     Iterator<Entity> getAllEntitiesIterator();
+    Iterator<Entity> getAllEntitiesIterator(int shard, int shards);
     void clearCache();
 }
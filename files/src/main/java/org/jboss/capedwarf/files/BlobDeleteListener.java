@@ -1,6 +1,6 @@
 /*
  * JBoss, Home of Professional Open Source.
- * Copyright 2012, Red Hat, Inc., and individual contributors
+ * Copyright 2013, Red Hat, Inc., and individual contributors
  * as indicated by the @author tags. See the copyright.txt file in the
  * distribution for a full listing of individual contributors.
  *
@@ -20,27 +20,23 @@
  * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
  */
 
-package org.jboss.capedwarf.prospectivesearch;
+package org.jboss.capedwarf.files;
 
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.List;
-
-import org.infinispan.distexec.mapreduce.Reducer;
+import com.google.appengine.api.blobstore.BlobKey;
 
 /**
-* @author <a href="mailto:mluksa@redhat.com">Marko Luksa</a>
-* @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
-*/
-class MatchReducer implements Reducer<String, List<SerializableSubscription>> {
-
-    public List<SerializableSubscription> reduce(String reducedKey, Iterator<List<SerializableSubscription>> iter) {
-        List<SerializableSubscription> list = new ArrayList<SerializableSubscription>();
-        while (iter.hasNext()) {
-            List<SerializableSubscription> topics = iter.next();
-            list.addAll(topics);
-        }
-        return list;
-    }
-
+ * Notified after blobs are deleted, so other services can drop what they keep per blob.
+ *
+ * Listeners are found with the ServiceLoader pattern.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public interface BlobDeleteListener {
+    /**
+     * Blobs were deleted.
+     *
+     * @param appId the app id
+     * @param blobKeys the deleted blobs
+     */
+    void blobsDeleted(String appId, BlobKey... blobKeys);
 }
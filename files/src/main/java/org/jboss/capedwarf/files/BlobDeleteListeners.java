@@ -0,0 +1,67 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.capedwarf.files;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.ServiceLoader;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.appengine.api.blobstore.BlobKey;
+
+/**
+ * Blob delete listeners.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+final class BlobDeleteListeners {
+    private static final Logger log = Logger.getLogger(BlobDeleteListeners.class.getName());
+
+    private static List<BlobDeleteListener> listeners;
+
+    private BlobDeleteListeners() {
+    }
+
+    private static synchronized List<BlobDeleteListener> getListeners() {
+        if (listeners == null) {
+            final ClassLoader cl = BlobDeleteListener.class.getClassLoader();
+            final List<BlobDeleteListener> found = new ArrayList<BlobDeleteListener>();
+            for (BlobDeleteListener listener : ServiceLoader.load(BlobDeleteListener.class, cl)) {
+                found.add(listener);
+            }
+            listeners = found;
+        }
+        return listeners;
+    }
+
+    static void blobsDeleted(String appId, BlobKey... blobKeys) {
+        for (BlobDeleteListener listener : getListeners()) {
+            try {
+                listener.blobsDeleted(appId, blobKeys);
+            } catch (Exception e) {
+                log.log(Level.WARNING, "Blob delete listener " + listener + " failed.", e);
+            }
+        }
+    }
+}
@@ -26,6 +26,7 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.Set;
@@ -54,7 +55,9 @@ import com.google.appengine.api.files.RecordWriteChannel;
 import org.infinispan.io.GridFilesystem;
 import org.jboss.capedwarf.common.app.Application;
 import org.jboss.capedwarf.common.infinispan.InfinispanUtils;
+import org.jboss.capedwarf.common.io.Digest;
 import org.jboss.capedwarf.common.io.DigestResult;
+import org.jboss.capedwarf.common.io.IOUtils;
 import org.jboss.capedwarf.common.reflection.ReflectionUtils;
 
 /**
@@ -68,6 +71,7 @@ public class CapedwarfFileService implements ExposedFileService {
     private static final String DEFAULT_MIME_TYPE = "application/octet-stream";
     private static final String KIND_TEMP_BLOB_INFO = "__BlobInfo_temp__";
     private static final String MD5_HASH_STATE = BlobInfoFactory.MD5_HASH + "__State";
+    private static final String MD5_HASH_LENGTH = BlobInfoFactory.MD5_HASH + "__Length";
 
     private DatastoreService datastoreService = DatastoreServiceFactory.getDatastoreService();
 
@@ -125,6 +129,10 @@ public class CapedwarfFileService implements ExposedFileService {
             tempBlobInfo.setProperty(BlobInfoFactory.CREATION, creationTimestamp);
             tempBlobInfo.setProperty(BlobInfoFactory.FILENAME, uploadedFileName);
             datastoreService.put(tempBlobInfo);
+
+            FileStateCache cache = getFileStateCache();
+            cache.putTemporaryInfo(file.getFullPath(), tempBlobInfo);
+            cache.setFinalized(file.getFullPath(), false);
         } finally {
             NamespaceManager.set(origNamespace);
         }
@@ -135,31 +143,106 @@ public class CapedwarfFileService implements ExposedFileService {
     }
 
     private Entity getTemporaryInfo(AppEngineFile file) {
-        try {
-            return datastoreService.get(getTempBlobInfoKey(file));
-        } catch (EntityNotFoundException e) {
+        Entity info = findTemporaryInfo(file);
+        if (info == null) {
             throw new IllegalStateException("Cannot finalize file " + file + ". Cannot find temp blob info.");
         }
+        return info;
     }
 
-    void saveMd5(AppEngineFile file, DigestResult dg) {
-        Entity info = getTemporaryInfo(file);
+    private Entity findTemporaryInfo(AppEngineFile file) {
+        FileStateCache cache = getFileStateCache();
+        Entity info = cache.getTemporaryInfo(file.getFullPath());
+        if (info == null) {
+            try {
+                info = datastoreService.get(getTempBlobInfoKey(file));
+            } catch (EntityNotFoundException e) {
+                return null;
+            }
+            cache.putTemporaryInfo(file.getFullPath(), info);
+        }
+        return info;
+    }
+
+    private FileStateCache getFileStateCache() {
+        return FileStateCache.getInstance(Application.getAppId());
+    }
+
+    FileDigest acquireDigest(AppEngineFile file) throws IOException {
+        long fileLength = getGfsFile(file).length();
+        FileDigest digest = getDigestCache().remove(file);
+        if (digest != null && digest.getLength() == fileLength) {
+            return digest;
+        }
+        return readMd5(file, fileLength);
+    }
+
+    void releaseDigest(FileDigest digest) {
+        FileDigest evicted = getDigestCache().put(digest);
+        if (evicted != null) {
+            saveMd5(evicted);
+        }
+    }
+
+    private DigestCache getDigestCache() {
+        return DigestCache.getInstance(Application.getAppId());
+    }
+
+    private void saveMd5(FileDigest digest) {
+        AppEngineFile file = digest.getFile();
+        Entity info = findTemporaryInfo(file);
+        if (info == null) {
+            return; // file was already finalized or deleted
+        }
+        DigestResult dg = digest.digest();
         byte[] bytes = dg.getState();
         if (bytes != null) {
             info.setProperty(MD5_HASH_STATE, new Blob(bytes));
+            info.setProperty(MD5_HASH_LENGTH, digest.getLength());
         }
         info.setProperty(BlobInfoFactory.MD5_HASH, dg.getDigest());
         datastoreService.put(info);
+        getFileStateCache().putTemporaryInfo(file.getFullPath(), info);
     }
 
-    DigestResult readMd5(AppEngineFile file) {
+    private FileDigest readMd5(AppEngineFile file, long fileLength) throws IOException {
         Entity info = getTemporaryInfo(file);
         Blob state = (Blob) info.getProperty(MD5_HASH_STATE);
+        Long length = (Long) info.getProperty(MD5_HASH_LENGTH);
         String md5 = (String) info.getProperty(BlobInfoFactory.MD5_HASH);
-        return new DigestResult(state != null ? state.getBytes() : null, md5);
+
+        Digest digest = newDigest();
+        if (state != null && length != null && length == fileLength) {
+            digest.initialize(new DigestResult(state.getBytes(), md5));
+            return new FileDigest(file, digest, fileLength);
+        }
+
+        // no state, or the file was appended elsewhere since it was saved -- re-hash the content
+        FileDigest fd = new FileDigest(file, digest, 0);
+        if (fileLength > 0) {
+            InputStream in = getGridFilesystem().getInput(getFilePath(file));
+            try {
+                byte[] bytes = new byte[8192];
+                int n;
+                while ((n = in.read(bytes)) != -1) {
+                    fd.update(ByteBuffer.wrap(bytes, 0, n));
+                }
+            } finally {
+                IOUtils.safeClose(in);
+            }
+        }
+        return fd;
+    }
+
+    private static Digest newDigest() {
+        try {
+            return IOUtils.getDigest("MD5");
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
     }
 
-    void finalizeFile(AppEngineFile file) {
+    void finalizeFile(AppEngineFile file, FileDigest digest) {
         String origNamespace = NamespaceManager.get();
         NamespaceManager.set("");
         try {
@@ -176,9 +259,12 @@ public class CapedwarfFileService implements ExposedFileService {
             blobInfo.setProperty(BlobInfoFactory.CONTENT_TYPE, tempBlobInfo.getProperty(BlobInfoFactory.CONTENT_TYPE));
             blobInfo.setProperty(BlobInfoFactory.CREATION, tempBlobInfo.getProperty(BlobInfoFactory.CREATION));
             blobInfo.setProperty(BlobInfoFactory.FILENAME, tempBlobInfo.getProperty(BlobInfoFactory.FILENAME));
-            blobInfo.setProperty(BlobInfoFactory.MD5_HASH, tempBlobInfo.getProperty(BlobInfoFactory.MD5_HASH));
+            blobInfo.setProperty(BlobInfoFactory.MD5_HASH, digest.digest().getDigest());
             blobInfo.setProperty(BlobInfoFactory.SIZE, fileSize);
             datastoreService.put(blobInfo);
+
+            InvalidateFileStateTask.invalidate(Application.getAppId(), file.getFullPath());
+            getFileStateCache().setFinalized(file.getFullPath(), true);
         } finally {
             NamespaceManager.set(origNamespace);
         }
@@ -199,11 +285,16 @@ public class CapedwarfFileService implements ExposedFileService {
 
     public void delete(BlobKey... blobKeys) {
         GridFilesystem gfs = getGridFilesystem();
-        for (BlobKey key : blobKeys) {
-            File file = gfs.getFile(getFilePath(key));
+        String[] paths = new String[blobKeys.length];
+        for (int i = 0; i < blobKeys.length; i++) {
+            AppEngineFile aef = getBlobFile(blobKeys[i]);
+            paths[i] = aef.getFullPath();
+            File file = gfs.getFile(getFilePath(aef));
             //noinspection ResultOfMethodCallIgnored
             file.delete();
         }
+        InvalidateFileStateTask.invalidate(Application.getAppId(), paths);
+        BlobDeleteListeners.blobsDeleted(Application.getAppId(), blobKeys);
     }
 
     public InputStream getStream(BlobKey blobKey) throws FileNotFoundException {
@@ -211,13 +302,31 @@ public class CapedwarfFileService implements ExposedFileService {
         return gfs.getInput(getFilePath(blobKey));
     }
 
+    public long getLength(BlobKey blobKey) throws FileNotFoundException {
+        File file = getGridFilesystem().getFile(getFilePath(blobKey));
+        if (file.exists() == false) {
+            throw new FileNotFoundException("No such blob: " + blobKey);
+        }
+        return file.length();
+    }
+
     public FileWriteChannel openWriteChannel(AppEngineFile file, boolean lock) throws IOException {
+        checkWritable(file);
+        GridFilesystem gfs = getGridFilesystem();
+        return new CapedwarfFileWriteChannel(file, gfs.getWritableChannel(getFilePath(file), true), this, lock);
+    }
+
+    public FileWriteChannel openWriteChannel(AppEngineFile file, boolean lock, int chunkSize) throws IOException {
+        checkWritable(file);
+        GridFilesystem gfs = getGridFilesystem();
+        return new CapedwarfFileWriteChannel(file, gfs.getWritableChannel(getFilePath(file), true, chunkSize), this, lock);
+    }
+
+    private void checkWritable(AppEngineFile file) throws FinalizationException {
         if (isFinalized(file)) {
             throwFinalizationException();
         }
         createBlobstoreDirIfNeeded();
-        GridFilesystem gfs = getGridFilesystem();
-        return new CapedwarfFileWriteChannel(file, gfs.getWritableChannel(getFilePath(file), true), this, lock);
     }
 
     private void throwFinalizationException() throws FinalizationException {
@@ -225,14 +334,24 @@ public class CapedwarfFileService implements ExposedFileService {
     }
 
     private boolean isFinalized(AppEngineFile file) {
-        BlobKey blobKey = getBlobKey(file);
-        BlobInfo blobInfo = getBlobInfo(blobKey);
-        return blobInfo != null;
+        FileStateCache cache = getFileStateCache();
+        Boolean finalized = cache.isFinalized(file.getFullPath());
+        if (finalized == null) {
+            BlobKey blobKey = getBlobKey(file);
+            BlobInfo blobInfo = getBlobInfo(blobKey);
+            finalized = (blobInfo != null);
+            cache.setFinalized(file.getFullPath(), finalized);
+        }
+        return finalized;
     }
 
     private void createBlobstoreDirIfNeeded() {
-        //noinspection ResultOfMethodCallIgnored
-        getGridFilesystem().getFile("blobstore").mkdirs();  // TODO: this is temporary
+        FileStateCache cache = getFileStateCache();
+        if (cache.isBlobstoreDirCreated() == false) {
+            //noinspection ResultOfMethodCallIgnored
+            getGridFilesystem().getFile("blobstore").mkdirs();  // TODO: this is temporary
+            cache.setBlobstoreDirCreated();
+        }
     }
 
     public FileReadChannel openReadChannel(AppEngineFile file, boolean lock) throws IOException {
@@ -305,7 +424,7 @@ public class CapedwarfFileService implements ExposedFileService {
     public FileStat stat(AppEngineFile file) throws IOException {
         Entity info = getFileInfo(KeyFactory.createKey(BlobInfoFactory.KIND, getBlobKey(file).getKeyString()));
         if (info == null) {
-            info = getFileInfo(getTempBlobInfoKey(file));
+            info = findTemporaryInfo(file);
             if (info == null) {
                 throw new FileNotFoundException(file.toString());
             } else {
@@ -323,11 +442,16 @@ public class CapedwarfFileService implements ExposedFileService {
 
     public void delete(AppEngineFile... appEngineFiles) throws IOException {
         final Set<AppEngineFile> failed = new HashSet<AppEngineFile>();
-        for (AppEngineFile aef : appEngineFiles) {
+        final String[] paths = new String[appEngineFiles.length];
+        for (int i = 0; i < appEngineFiles.length; i++) {
+            AppEngineFile aef = appEngineFiles[i];
+            paths[i] = aef.getFullPath();
+            getDigestCache().remove(aef);
             if (getGfsFile(aef).delete() == false) {
                 failed.add(aef);
             }
         }
+        InvalidateFileStateTask.invalidate(Application.getAppId(), paths);
         if (failed.isEmpty() == false)
             throw new IOException("Failed to delete files: " + failed);
     }
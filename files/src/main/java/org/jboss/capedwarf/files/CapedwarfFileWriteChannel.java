@@ -28,9 +28,6 @@ import java.nio.ByteBuffer;
 import com.google.appengine.api.files.AppEngineFile;
 import com.google.appengine.api.files.FileWriteChannel;
 import org.infinispan.io.WritableGridFileChannel;
-import org.jboss.capedwarf.common.io.Digest;
-import org.jboss.capedwarf.common.io.DigestResult;
-import org.jboss.capedwarf.common.io.IOUtils;
 
 /**
  * JBoss file write channel.
@@ -44,7 +41,7 @@ class CapedwarfFileWriteChannel implements FileWriteChannel {
     private CapedwarfFileService fileService;
     private boolean lockHeld;
 
-    private volatile Digest digest;
+    private volatile FileDigest digest;
 
     CapedwarfFileWriteChannel(AppEngineFile file, WritableGridFileChannel channel, CapedwarfFileService fileService, boolean lock) {
         this.file = file;
@@ -58,12 +55,7 @@ class CapedwarfFileWriteChannel implements FileWriteChannel {
     }
 
     public int write(ByteBuffer buffer) throws IOException {
-        ByteBuffer dup = buffer.duplicate();
-
-        byte[] bytes = new byte[dup.remaining()];
-        dup.get(bytes);
-        getDigest().update(bytes);
-
+        getDigest().update(buffer.duplicate());
         return delegate.write(buffer);
     }
 
@@ -73,11 +65,13 @@ class CapedwarfFileWriteChannel implements FileWriteChannel {
 
     public void close() throws IOException {
         try {
-            Digest md = getDigest();
-            digest = null;
-            fileService.saveMd5(file, md.digest());
-        } finally {
             delegate.close();
+        } finally {
+            FileDigest fd = digest;
+            digest = null;
+            if (fd != null) {
+                fileService.releaseDigest(fd);
+            }
         }
     }
 
@@ -85,19 +79,15 @@ class CapedwarfFileWriteChannel implements FileWriteChannel {
         if (!lockHeld) {
             throw new IllegalStateException("The lock for this file is not held by the current request");
         }
-        close();
-        fileService.finalizeFile(file);
+        FileDigest fd = getDigest();
+        digest = null;
+        delegate.close();
+        fileService.finalizeFile(file, fd);
     }
 
-    protected synchronized Digest getDigest() {
+    protected synchronized FileDigest getDigest() throws IOException {
         if (digest == null) {
-            try {
-                digest = IOUtils.getDigest("MD5");
-                DigestResult previousResult = fileService.readMd5(file);
-                digest.initialize(previousResult);
-            } catch (Exception e) {
-                throw new RuntimeException(e);
-            }
+            digest = fileService.acquireDigest(file);
         }
         return digest;
     }
@@ -0,0 +1,82 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.capedwarf.files;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.google.appengine.api.files.AppEngineFile;
+import org.jboss.capedwarf.common.shared.AppComponents;
+
+/**
+ * Node-local cache of in-progress file digests.
+ *
+ * Digests of closed, but not yet finalized, files are kept here between append sessions,
+ * so they don't need to be marshalled and saved to datastore on every close.
+ * Only the least recently used digests are evicted, and it's the caller's job to persist them.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+final class DigestCache {
+    private static final int MAX_ENTRIES = 1000;
+
+    private final Map<String, FileDigest> digests = new LinkedHashMap<String, FileDigest>(16, 0.75f, true);
+
+    private static final AppComponents.Factory<DigestCache> FACTORY = new AppComponents.Factory<DigestCache>() {
+        protected DigestCache create() {
+            return new DigestCache();
+        }
+    };
+
+    static DigestCache getInstance(String appId) {
+        return AppComponents.getOrCreate(appId, DigestCache.class, FACTORY);
+    }
+
+    /**
+     * Take the digest out of the cache.
+     *
+     * @param file the file
+     * @return cached digest or null if there is none
+     */
+    synchronized FileDigest remove(AppEngineFile file) {
+        return digests.remove(file.getFullPath());
+    }
+
+    /**
+     * Put the digest into the cache.
+     *
+     * @param digest the digest
+     * @return evicted digest, or null if nothing was evicted
+     */
+    synchronized FileDigest put(FileDigest digest) {
+        digests.put(digest.getFile().getFullPath(), digest);
+        if (digests.size() > MAX_ENTRIES) {
+            Iterator<FileDigest> eldest = digests.values().iterator();
+            FileDigest evicted = eldest.next();
+            eldest.remove();
+            return evicted;
+        }
+        return null;
+    }
+}
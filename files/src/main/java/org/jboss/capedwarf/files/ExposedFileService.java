@@ -23,6 +23,7 @@
 package org.jboss.capedwarf.files;
 
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.InputStream;
 
 import com.google.appengine.api.blobstore.BlobInfo;
@@ -30,6 +31,7 @@ import com.google.appengine.api.blobstore.BlobKey;
 import com.google.appengine.api.blobstore.FileInfo;
 import com.google.appengine.api.files.AppEngineFile;
 import com.google.appengine.api.files.FileService;
+import com.google.appengine.api.files.FileWriteChannel;
 
 /**
  * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
@@ -37,8 +39,12 @@ import com.google.appengine.api.files.FileService;
  */
 public interface ExposedFileService extends FileService {
     InputStream getStream(BlobKey blobKey) throws FileNotFoundException;
+    // blob's length, from grid filesystem metadata
+    long getLength(BlobKey blobKey) throws FileNotFoundException;
     void delete(BlobKey... blobKeys);
     boolean exists(AppEngineFile file);
+    // write new file with custom grid chunk size
+    FileWriteChannel openWriteChannel(AppEngineFile file, boolean lock, int chunkSize) throws IOException;
     // infos
     BlobInfo getBlobInfo(BlobKey key);
     FileInfo getFileInfo(BlobKey key);
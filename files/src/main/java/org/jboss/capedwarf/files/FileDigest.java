@@ -0,0 +1,63 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.capedwarf.files;
+
+import java.nio.ByteBuffer;
+
+import com.google.appengine.api.files.AppEngineFile;
+import org.jboss.capedwarf.common.io.Digest;
+import org.jboss.capedwarf.common.io.DigestResult;
+
+/**
+ * In-progress MD5 digest of a file, together with the number of bytes it covers.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+final class FileDigest {
+    private final AppEngineFile file;
+    private final Digest digest;
+    private long length;
+
+    FileDigest(AppEngineFile file, Digest digest, long length) {
+        this.file = file;
+        this.digest = digest;
+        this.length = length;
+    }
+
+    AppEngineFile getFile() {
+        return file;
+    }
+
+    long getLength() {
+        return length;
+    }
+
+    void update(ByteBuffer buffer) {
+        length += buffer.remaining();
+        digest.update(buffer);
+    }
+
+    DigestResult digest() {
+        return digest.digest();
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.capedwarf.files;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.google.appengine.api.datastore.Entity;
+import org.jboss.capedwarf.common.shared.AppComponents;
+
+/**
+ * Node-local cache of file state -- finalization status and temporary blob info.
+ *
+ * Entries are keyed by file's full path, and are invalidated cluster-wide
+ * on finalize and delete, without waiting for other nodes, see InvalidateFileStateTask.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+final class FileStateCache {
+    private static final int MAX_ENTRIES = 10000;
+
+    private final Map<String, Boolean> finalized = new LruMap<Boolean>();
+    private final Map<String, Entity> tempInfos = new LruMap<Entity>();
+    private volatile boolean blobstoreDirCreated;
+
+    private static final AppComponents.Factory<FileStateCache> FACTORY = new AppComponents.Factory<FileStateCache>() {
+        protected FileStateCache create() {
+            return new FileStateCache();
+        }
+    };
+
+    static FileStateCache getInstance(String appId) {
+        return AppComponents.getOrCreate(appId, FileStateCache.class, FACTORY);
+    }
+
+    /**
+     * Get finalization status.
+     *
+     * @param path the file path
+     * @return status or null if unknown
+     */
+    synchronized Boolean isFinalized(String path) {
+        return finalized.get(path);
+    }
+
+    synchronized void setFinalized(String path, boolean status) {
+        finalized.put(path, status);
+    }
+
+    /**
+     * Get temporary blob info.
+     *
+     * @param path the file path
+     * @return copy of cached info or null if not cached
+     */
+    synchronized Entity getTemporaryInfo(String path) {
+        Entity info = tempInfos.get(path);
+        return (info != null) ? info.clone() : null;
+    }
+
+    synchronized void putTemporaryInfo(String path, Entity info) {
+        tempInfos.put(path, info.clone());
+    }
+
+    synchronized void invalidate(String path) {
+        finalized.remove(path);
+        tempInfos.remove(path);
+    }
+
+    boolean isBlobstoreDirCreated() {
+        return blobstoreDirCreated;
+    }
+
+    void setBlobstoreDirCreated() {
+        blobstoreDirCreated = true;
+    }
+
+    private static class LruMap<V> extends LinkedHashMap<String, V> {
+        private static final long serialVersionUID = 1L;
+
+        private LruMap() {
+            super(16, 0.75f, true);
+        }
+
+        protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.capedwarf.files;
+
+import java.io.Serializable;
+import java.util.concurrent.Callable;
+
+import org.jboss.capedwarf.common.infinispan.InfinispanUtils;
+
+/**
+ * Invalidate cached file state on every node.
+ *
+ * This node's state is invalidated at once, other nodes' in the background;
+ * until then they may still see the file as not finalized, or as existing.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+class InvalidateFileStateTask implements Callable<Void>, Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final String appId;
+    private final String[] paths;
+
+    InvalidateFileStateTask(String appId, String... paths) {
+        this.appId = appId;
+        this.paths = paths;
+    }
+
+    static void invalidate(String appId, String... paths) {
+        invalidateLocal(appId, paths);
+        InfinispanUtils.everywhere(appId, new InvalidateFileStateTask(appId, paths));
+    }
+
+    private static void invalidateLocal(String appId, String... paths) {
+        FileStateCache cache = FileStateCache.getInstance(appId);
+        for (String path : paths) {
+            cache.invalidate(path);
+        }
+    }
+
+    public Void call() throws Exception {
+        invalidateLocal(appId, paths);
+        return null;
+    }
+}
@@ -40,8 +40,7 @@ import com.google.appengine.api.images.ServingUrlOptions;
 import com.google.appengine.api.images.Transform;
 import org.jboss.capedwarf.common.threads.ExecutorFactory;
 import org.jboss.capedwarf.files.ExposedFileService;
-import org.jboss.capedwarf.images.transform.CapedwarfTransform;
-import org.jboss.capedwarf.images.transform.CapedwarfTransformFactory;
+import org.jboss.capedwarf.images.transform.TransformPipeline;
 import org.jboss.capedwarf.images.util.ImageUtils;
 
 /**
@@ -65,8 +64,7 @@ public class CapedwarfImagesService implements ImagesService {
     }
 
     public Image applyTransform(Transform transform, Image image, InputSettings inputSettings, OutputSettings outputSettings) {
-        BufferedImage bufferedImage = convertToBufferedImage(image);
-        BufferedImage transformedBufferedImage = applyTransform(transform, bufferedImage);
+        BufferedImage transformedBufferedImage = TransformPipeline.compile(transform).applyTo(image.getImageData());
         return createImage(transformedBufferedImage, outputSettings);
     }
 
@@ -76,8 +74,7 @@ public class CapedwarfImagesService implements ImagesService {
     }
 
     public static BufferedImage applyTransform(Transform transform, BufferedImage bufferedImage) {
-        CapedwarfTransform capedwarfTransform = CapedwarfTransformFactory.createJBossTransform(transform);
-        return capedwarfTransform.applyTo(bufferedImage);
+        return TransformPipeline.compile(transform).applyTo(bufferedImage);
     }
 
     private BufferedImage convertToBufferedImage(Image image) {
@@ -24,6 +24,7 @@
 
 package org.jboss.capedwarf.images;
 
+import com.google.appengine.api.blobstore.BlobInfo;
 import com.google.appengine.api.blobstore.BlobKey;
 
 import java.util.StringTokenizer;
@@ -74,4 +75,40 @@ public class ImageRequest {
     public boolean isCrop() {
         return crop;
     }
+
+    /**
+     * The requested variant; s[size][-c] or orig.
+     *
+     * @return the variant
+     */
+    public String getVariant() {
+        if (isTransformationRequested()) {
+            return "s" + imageSize + (crop ? CROP_TOKEN : "");
+        } else {
+            return "orig";
+        }
+    }
+
+    /**
+     * Key of the requested variant; [blob key]/[variant].
+     *
+     * @return the variant key
+     */
+    public String getVariantKey() {
+        return blobKey.getKeyString() + "/" + getVariant();
+    }
+
+    /**
+     * ETag of the requested variant; it's derived from blob's content, which the variant is rendered from.
+     *
+     * @param blobInfo the blob info
+     * @return the etag
+     */
+    public String getETag(BlobInfo blobInfo) {
+        String version = blobInfo.getMd5Hash();
+        if (version == null) {
+            version = blobInfo.getSize() + "-" + blobInfo.getCreation().getTime();
+        }
+        return "\"" + version + "/" + getVariant() + "\"";
+    }
 }
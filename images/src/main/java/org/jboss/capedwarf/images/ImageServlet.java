@@ -24,9 +24,7 @@
 
 package org.jboss.capedwarf.images;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.InputStream;
 
 import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
@@ -34,13 +32,15 @@ import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import com.google.appengine.api.blobstore.BlobInfo;
+import com.google.appengine.api.blobstore.BlobInfoFactory;
 import com.google.appengine.api.blobstore.BlobKey;
 import com.google.appengine.api.blobstore.BlobstoreServiceFactory;
 import com.google.appengine.api.images.Image;
 import com.google.appengine.api.images.ImagesServiceFactory;
 import com.google.appengine.api.images.Transform;
+import org.jboss.capedwarf.common.app.Application;
 import org.jboss.capedwarf.common.config.CapedwarfEnvironment;
-import org.jboss.capedwarf.common.io.IOUtils;
 
 /**
  * @author <a href="mailto:marko.luksa@gmail.com">Marko Luksa</a>
@@ -49,25 +49,83 @@ import org.jboss.capedwarf.common.io.IOUtils;
 @WebServlet(urlPatterns = ImageServlet.SERVLET_URI)
 public class ImageServlet extends HttpServlet {
     public static final String SERVLET_URI = "/_ah/image";
+    private static final String CACHE_CONTROL = "public, max-age=86400";
 
     @Override
     protected void doGet(HttpServletRequest req, HttpServletResponse response) throws ServletException, IOException {
         ImageRequest imageRequest = new ImageRequest(req.getPathInfo());
         if (imageRequest.isTransformationRequested()) {
-            serveTransformedImage(imageRequest, response);
+            serveTransformedImage(imageRequest, req, response);
         } else {
-            serveUntransformedImage(imageRequest, response);
+            serveUntransformedImage(imageRequest, req, response);
         }
     }
 
-    private void serveUntransformedImage(ImageRequest imageRequest, HttpServletResponse response) throws IOException {
+    /**
+     * Resolve the blob behind the serving url.
+     *
+     * @return blob info, or null if 404 was sent
+     */
+    private BlobInfo loadBlobInfo(ImageRequest imageRequest, HttpServletResponse response) throws IOException {
+        BlobKey blobKey = imageRequest.getBlobKey();
+        BlobInfo blobInfo = null;
+        // deleted serving url keeps a marker until the serving url is created again, or the blob is deleted
+        if (RenderedImageCache.getInstance(Application.getAppId()).isServing(blobKey.getKeyString())) {
+            blobInfo = new BlobInfoFactory().loadBlobInfo(blobKey);
+        }
+        if (blobInfo == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+        }
+        return blobInfo;
+    }
+
+    private void serveUntransformedImage(ImageRequest imageRequest, HttpServletRequest req, HttpServletResponse response) throws IOException {
+        BlobInfo blobInfo = loadBlobInfo(imageRequest, response);
+        if (blobInfo == null) {
+            return;
+        }
+        String etag = imageRequest.getETag(blobInfo);
+        if (matchesETag(req.getHeader("If-None-Match"), etag)) {
+            notModified(etag, response);
+            return;
+        }
+        response.setHeader("ETag", etag);
+        response.setHeader("Cache-Control", CACHE_CONTROL);
         BlobstoreServiceFactory.getBlobstoreService().serve(imageRequest.getBlobKey(), response);
     }
 
-    private void serveTransformedImage(ImageRequest imageRequest, HttpServletResponse response) throws IOException {
-        Image image = loadImage(imageRequest.getBlobKey());
-        Image transformedImage = transform(image, imageRequest.getImageSize(), imageRequest.isCrop());
-        serve(transformedImage, response);
+    private void serveTransformedImage(ImageRequest imageRequest, HttpServletRequest req, HttpServletResponse response) throws IOException {
+        RenderedImageCache cache = RenderedImageCache.getInstance(Application.getAppId());
+        // variants are purged with the serving url and with the blob, so a cached one is still valid
+        RenderedVariant variant = cache.get(imageRequest);
+        if (variant == null) {
+            BlobInfo blobInfo = loadBlobInfo(imageRequest, response);
+            if (blobInfo == null) {
+                return;
+            }
+            String etag = imageRequest.getETag(blobInfo);
+            if (matchesETag(req.getHeader("If-None-Match"), etag)) {
+                notModified(etag, response);
+                return;
+            }
+            Image image = loadImage(imageRequest.getBlobKey());
+            Image transformedImage = transform(image, imageRequest.getImageSize(), imageRequest.isCrop());
+            variant = new RenderedVariant(transformedImage.getImageData(), System.currentTimeMillis(), etag);
+            cache.put(imageRequest, variant);
+        } else if (matchesETag(req.getHeader("If-None-Match"), variant.getETag())) {
+            notModified(variant.getETag(), response);
+            return;
+        }
+
+        long ifModifiedSince = req.getDateHeader("If-Modified-Since");
+        if (ifModifiedSince >= 0 && variant.getLastModified() / 1000 <= ifModifiedSince / 1000) {
+            notModified(variant.getETag(), response);
+            return;
+        }
+
+        response.setHeader("ETag", variant.getETag());
+        response.setHeader("Cache-Control", CACHE_CONTROL);
+        serve(variant, response);
     }
 
     private Image loadImage(BlobKey blobKey) {
@@ -79,14 +137,32 @@ public class ImageServlet extends HttpServlet {
         return ImagesServiceFactory.getImagesService().applyTransform(transform, image);
     }
 
-    private void serve(Image image, HttpServletResponse response) throws IOException {
-        InputStream in = new ByteArrayInputStream(image.getImageData());
-        try {
-            response.setStatus(HttpServletResponse.SC_OK);
-            IOUtils.copyStream(in, response.getOutputStream());
-        } finally {
-            in.close();
+    private void serve(RenderedVariant variant, HttpServletResponse response) throws IOException {
+        byte[] bytes = variant.getBytes();
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.setDateHeader("Last-Modified", variant.getLastModified());
+        response.setContentType("image/png");
+        response.setContentLength(bytes.length);
+        response.getOutputStream().write(bytes);
+    }
+
+    private static void notModified(String etag, HttpServletResponse response) {
+        response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        response.setHeader("ETag", etag);
+        response.setHeader("Cache-Control", CACHE_CONTROL);
+    }
+
+    private static boolean matchesETag(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.equals("*") || tag.equals(etag)) {
+                return true;
+            }
         }
+        return false;
     }
 
     private Transform makeTransform(int imageSize, boolean crop) {
@@ -108,12 +184,12 @@ public class ImageServlet extends HttpServlet {
             builder.append(ImageRequest.SIZE_TOKEN).append(imageSize);
         if (crop)
             builder.append(ImageRequest.CROP_TOKEN);
+        RenderedImageCache.getInstance(Application.getAppId()).startServing(blobKey.getKeyString());
         return builder.toString();
     }
 
-    @SuppressWarnings("UnusedParameters")
     public static void deleteServingUrl(BlobKey blobKey) {
-        // no-op atm
+        PurgeRenderedImagesTask.stopServing(Application.getAppId(), blobKey);
     }
 
     private static String getServletUrl(boolean secureUrl) {
@@ -0,0 +1,79 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.capedwarf.images;
+
+import java.io.Serializable;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+import com.google.appengine.api.blobstore.BlobKey;
+import org.jboss.capedwarf.common.infinispan.InfinispanUtils;
+import org.jboss.capedwarf.common.util.Util;
+
+/**
+ * Purge blob's rendered variants from every node's heap.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+class PurgeRenderedImagesTask implements Callable<Void>, Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final String appId;
+    private final String blobKey;
+
+    PurgeRenderedImagesTask(String appId, String blobKey) {
+        this.appId = appId;
+        this.blobKey = blobKey;
+    }
+
+    /**
+     * Stop serving the blob, waiting until no node serves its variants.
+     *
+     * @param appId the app id
+     * @param blobKey the blob key
+     */
+    static void stopServing(String appId, BlobKey blobKey) {
+        RenderedImageCache.getInstance(appId).stopServing(blobKey.getKeyString());
+        List<Future<Void>> results = InfinispanUtils.everywhere(appId, new PurgeRenderedImagesTask(appId, blobKey.getKeyString()));
+        for (Future<Void> f : results) {
+            Util.quietGet(f);
+        }
+    }
+
+    /**
+     * Purge the variants of a deleted blob; heaps are purged in the background.
+     *
+     * @param appId the app id
+     * @param blobKey the blob key
+     */
+    static void purge(String appId, BlobKey blobKey) {
+        RenderedImageCache.getInstance(appId).purgePersistent(blobKey.getKeyString());
+        InfinispanUtils.everywhere(appId, new PurgeRenderedImagesTask(appId, blobKey.getKeyString()));
+    }
+
+    public Void call() throws Exception {
+        RenderedImageCache.getInstance(appId).purgeLocal(blobKey);
+        return null;
+    }
+}
@@ -0,0 +1,281 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.capedwarf.images;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.infinispan.io.GridFilesystem;
+import org.jboss.capedwarf.common.infinispan.InfinispanUtils;
+import org.jboss.capedwarf.common.io.IOUtils;
+import org.jboss.capedwarf.common.shared.AppComponents;
+
+/**
+ * Two tier cache of rendered serving url variants.
+ *
+ * The first tier is a node-local LRU bounded by total size,
+ * the second tier keeps variants on the app's grid filesystem, under images/[blob key]/,
+ * bounded by the number of variants per blob and the variant size.
+ * The directory also holds the marker of blob's deleted serving url, and is deleted with the blob.
+ * Each persisted variant starts with its etag.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+final class RenderedImageCache {
+    private static final Logger log = Logger.getLogger(RenderedImageCache.class.getName());
+
+    private static final long MAX_HEAP_SIZE = Long.parseLong(System.getProperty("jboss.capedwarf.images.cacheSize", String.valueOf(16 * 1024 * 1024)));
+    private static final int MAX_PERSISTED_VARIANTS = Integer.getInteger("jboss.capedwarf.images.persistedVariants", 8);
+    private static final long MAX_PERSISTED_SIZE = Long.parseLong(System.getProperty("jboss.capedwarf.images.persistedSize", String.valueOf(1024 * 1024)));
+    private static final String ROOT = "images";
+    private static final String STOPPED = "stopped";
+
+    private final String appId;
+    private final Map<String, RenderedVariant> variants = new LinkedHashMap<String, RenderedVariant>(16, 0.75f, true);
+    private long heapSize;
+
+    private RenderedImageCache(String appId) {
+        this.appId = appId;
+    }
+
+    static RenderedImageCache getInstance(final String appId) {
+        return AppComponents.getOrCreate(appId, RenderedImageCache.class, new AppComponents.Factory<RenderedImageCache>() {
+            protected RenderedImageCache create() {
+                return new RenderedImageCache(appId);
+            }
+        });
+    }
+
+    RenderedVariant get(ImageRequest request) {
+        final String key = request.getVariantKey();
+        synchronized (this) {
+            RenderedVariant variant = variants.get(key);
+            if (variant != null) {
+                return variant;
+            }
+        }
+
+        RenderedVariant variant = readVariant(request);
+        if (variant != null) {
+            putLocal(key, variant);
+        }
+        return variant;
+    }
+
+    void put(ImageRequest request, RenderedVariant variant) {
+        putLocal(request.getVariantKey(), variant);
+        writeVariant(request, variant);
+    }
+
+    /**
+     * Is the blob's serving url still valid.
+     *
+     * @param blobKey the blob key string
+     * @return false if serving url was deleted and not created again since
+     */
+    boolean isServing(String blobKey) {
+        return getGridFilesystem().getFile(getStoppedPath(blobKey)).exists() == false;
+    }
+
+    /**
+     * Serve the blob again, after its serving url was deleted.
+     *
+     * @param blobKey the blob key string
+     */
+    void startServing(String blobKey) {
+        File stopped = getGridFilesystem().getFile(getStoppedPath(blobKey));
+        if (stopped.exists()) {
+            //noinspection ResultOfMethodCallIgnored
+            stopped.delete();
+        }
+    }
+
+    /**
+     * Mark the blob's serving url as deleted, and remove its persisted variants.
+     *
+     * @param blobKey the blob key string
+     */
+    void stopServing(String blobKey) {
+        purgePersistent(blobKey);
+        GridFilesystem gfs = getGridFilesystem();
+        try {
+            //noinspection ResultOfMethodCallIgnored
+            gfs.getFile(getDir(blobKey)).mkdirs();
+            gfs.getOutput(getStoppedPath(blobKey)).close();
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot delete serving url for " + blobKey, e);
+        }
+    }
+
+    /**
+     * Remove all variants of the blob from this node's heap.
+     *
+     * @param blobKey the blob key string
+     */
+    synchronized void purgeLocal(String blobKey) {
+        final String prefix = blobKey + "/";
+        Iterator<Map.Entry<String, RenderedVariant>> it = variants.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, RenderedVariant> entry = it.next();
+            if (entry.getKey().startsWith(prefix)) {
+                heapSize -= entry.getValue().getBytes().length;
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Remove all persisted variants of the blob, and its deleted serving url marker.
+     *
+     * @param blobKey the blob key string
+     */
+    void purgePersistent(String blobKey) {
+        File dir = getGridFilesystem().getFile(getDir(blobKey));
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+            }
+        }
+        //noinspection ResultOfMethodCallIgnored
+        dir.delete();
+    }
+
+    private synchronized void putLocal(String key, RenderedVariant variant) {
+        int size = variant.getBytes().length;
+        if (size > MAX_HEAP_SIZE) {
+            return;
+        }
+        RenderedVariant previous = variants.put(key, variant);
+        if (previous != null) {
+            heapSize -= previous.getBytes().length;
+        }
+        heapSize += size;
+
+        Iterator<RenderedVariant> eldest = variants.values().iterator();
+        while (heapSize > MAX_HEAP_SIZE && eldest.hasNext()) {
+            heapSize -= eldest.next().getBytes().length;
+            eldest.remove();
+        }
+    }
+
+    private RenderedVariant readVariant(ImageRequest request) {
+        try {
+            GridFilesystem gfs = getGridFilesystem();
+            String path = getPath(request);
+            File file = gfs.getFile(path);
+            if (file.exists() == false) {
+                return null;
+            }
+            DataInputStream in = new DataInputStream(gfs.getInput(path));
+            try {
+                String etag = in.readUTF();
+                return new RenderedVariant(IOUtils.toBytes(in, false), file.lastModified(), etag);
+            } finally {
+                IOUtils.safeClose(in);
+            }
+        } catch (IOException e) {
+            log.log(Level.WARNING, "Cannot read cached image variant " + request.getVariantKey(), e);
+            return null;
+        }
+    }
+
+    private void writeVariant(ImageRequest request, RenderedVariant variant) {
+        if (variant.getBytes().length > MAX_PERSISTED_SIZE) {
+            return;
+        }
+        try {
+            GridFilesystem gfs = getGridFilesystem();
+            File dir = gfs.getFile(getDir(request.getBlobKey().getKeyString()));
+            //noinspection ResultOfMethodCallIgnored
+            dir.mkdirs();
+            evictPersisted(dir);
+            DataOutputStream out = new DataOutputStream(gfs.getOutput(getPath(request)));
+            try {
+                out.writeUTF(variant.getETag());
+                out.write(variant.getBytes());
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            log.log(Level.WARNING, "Cannot write cached image variant " + request.getVariantKey(), e);
+        }
+    }
+
+    /**
+     * Make room for one more variant, removing the least recently written ones.
+     */
+    private static void evictPersisted(File dir) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        List<File> persisted = new ArrayList<File>();
+        for (File file : files) {
+            if (STOPPED.equals(file.getName()) == false) {
+                persisted.add(file);
+            }
+        }
+        if (persisted.size() < MAX_PERSISTED_VARIANTS) {
+            return;
+        }
+        Collections.sort(persisted, new Comparator<File>() {
+            public int compare(File f1, File f2) {
+                long diff = f1.lastModified() - f2.lastModified();
+                return (diff < 0) ? -1 : (diff > 0 ? 1 : 0);
+            }
+        });
+        for (int i = 0; i <= persisted.size() - MAX_PERSISTED_VARIANTS; i++) {
+            //noinspection ResultOfMethodCallIgnored
+            persisted.get(i).delete();
+        }
+    }
+
+    private static String getDir(String blobKey) {
+        return ROOT + "/" + blobKey;
+    }
+
+    private static String getStoppedPath(String blobKey) {
+        return getDir(blobKey) + "/" + STOPPED;
+    }
+
+    private String getPath(ImageRequest request) {
+        return ROOT + "/" + request.getVariantKey();
+    }
+
+    private GridFilesystem getGridFilesystem() {
+        return InfinispanUtils.getGridFilesystem(appId);
+    }
+}
@@ -1,6 +1,6 @@
 /*
  * JBoss, Home of Professional Open Source.
- * Copyright 2012, Red Hat, Inc., and individual contributors
+ * Copyright 2013, Red Hat, Inc., and individual contributors
  * as indicated by the @author tags. See the copyright.txt file in the
  * distribution for a full listing of individual contributors.
  *
@@ -20,24 +20,20 @@
  * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
  */
 
-package org.jboss.capedwarf.prospectivesearch;
+package org.jboss.capedwarf.images;
 
-import java.util.Iterator;
-import java.util.Set;
-import java.util.TreeSet;
-
-import org.infinispan.distexec.mapreduce.Reducer;
+import com.google.appengine.api.blobstore.BlobKey;
+import org.jboss.capedwarf.files.BlobDeleteListener;
 
 /**
-* @author <a href="mailto:mluksa@redhat.com">Marko Luksa</a>
-*/
-class TopicsReducer implements Reducer<String, Set<String>> {
-    public Set<String> reduce(String reducedKey, Iterator<Set<String>> iter) {
-        Set<String> allTopics = new TreeSet<String>();
-        while (iter.hasNext()) {
-            Set<String> topics = iter.next();
-            allTopics.addAll(topics);
+ * Purges rendered variants of deleted blobs.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class RenderedImagesPurger implements BlobDeleteListener {
+    public void blobsDeleted(String appId, BlobKey... blobKeys) {
+        for (BlobKey blobKey : blobKeys) {
+            PurgeRenderedImagesTask.purge(appId, blobKey);
         }
-        return allTopics;
     }
 }
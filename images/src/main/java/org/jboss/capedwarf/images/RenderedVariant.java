@@ -1,6 +1,6 @@
 /*
  * JBoss, Home of Professional Open Source.
- * Copyright 2012, Red Hat, Inc., and individual contributors
+ * Copyright 2013, Red Hat, Inc., and individual contributors
  * as indicated by the @author tags. See the copyright.txt file in the
  * distribution for a full listing of individual contributors.
  *
@@ -20,22 +20,33 @@
  * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
  */
 
-package org.jboss.capedwarf.prospectivesearch;
+package org.jboss.capedwarf.images;
 
-import java.util.Collections;
-import java.util.Set;
+/**
+ * Encoded, transformed image.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+final class RenderedVariant {
+    private final byte[] bytes;
+    private final long lastModified;
+    private final String etag;
 
-import org.infinispan.distexec.mapreduce.Collector;
-import org.infinispan.distexec.mapreduce.Mapper;
+    RenderedVariant(byte[] bytes, long lastModified, String etag) {
+        this.bytes = bytes;
+        this.lastModified = lastModified;
+        this.etag = etag;
+    }
 
-/**
-* @author <a href="mailto:mluksa@redhat.com">Marko Luksa</a>
-*/
-class TopicsMapper implements Mapper<TopicAndSubId, SubscriptionHolder, String, Set<String>> {
+    byte[] getBytes() {
+        return bytes;
+    }
 
-    public static final String KEY = "topics";
+    long getLastModified() {
+        return lastModified;
+    }
 
-    public void map(TopicAndSubId key, SubscriptionHolder value, Collector<String, Set<String>> collector) {
-        collector.emit(KEY, Collections.singleton(value.getTopic()));
+    String getETag() {
+        return etag;
     }
 }
@@ -26,7 +26,6 @@ import java.awt.image.BufferedImage;
 import java.util.List;
 
 import com.google.appengine.api.images.Transform;
-import org.jboss.capedwarf.images.CapedwarfImagesService;
 
 /**
  * A composite transform of multiple transforms.
@@ -41,13 +40,10 @@ public class CompositeTransform extends CapedwarfTransform {
 
     @Override
     public BufferedImage applyTo(BufferedImage image) {
-        for (Transform transform : getTransforms()) {
-            image = CapedwarfImagesService.applyTransform(transform, image);
-        }
-        return image;
+        return TransformPipeline.compile(getTransforms()).applyTo(image);
     }
 
-    private List<Transform> getTransforms() {
+    List<Transform> getTransforms() {
         return getFieldValue("transforms");
     }
 
@@ -22,30 +22,28 @@
 
 package org.jboss.capedwarf.images.transform;
 
-import java.awt.image.BufferedImage;
-
 import com.google.appengine.api.images.Transform;
 
 /**
  * @author <a href="mailto:marko.luksa@gmail.com">Marko Luksa</a>
  */
-public class CropTransform extends CapedwarfTransform {
+public class CropTransform extends GeometricTransform {
 
     public CropTransform(Transform transform) {
         super(transform);
     }
 
     @Override
-    public BufferedImage applyTo(BufferedImage image) {
-        int leftXInt = convertX(getLeftX(), image);
-        int rightXInt = convertX(getRightX(), image);
-        int topYInt = convertY(getTopY(), image);
-        int bottomYInt = convertY(getBottomY(), image);
+    public void appendTo(Geometry geometry) {
+        int leftXInt = convertX(getLeftX(), geometry);
+        int rightXInt = convertX(getRightX(), geometry);
+        int topYInt = convertY(getTopY(), geometry);
+        int bottomYInt = convertY(getBottomY(), geometry);
 
         int croppedWidth = rightXInt - leftXInt;
         int croppedHeight = bottomYInt - topYInt;
 
-        return image.getSubimage(leftXInt, topYInt, croppedWidth, croppedHeight);
+        geometry.crop(leftXInt, topYInt, croppedWidth, croppedHeight);
     }
 
     private Float getBottomY() {
@@ -64,11 +62,11 @@ public class CropTransform extends CapedwarfTransform {
         return getFieldValue("leftX");
     }
 
-    private int convertX(float x, BufferedImage image) {
-        return (int) (x * image.getWidth());
+    private int convertX(float x, Geometry geometry) {
+        return (int) (x * geometry.getWidth());
     }
 
-    private int convertY(float y, BufferedImage image) {
-        return (int) (y * image.getHeight());
+    private int convertY(float y, Geometry geometry) {
+        return (int) (y * geometry.getHeight());
     }
 }
@@ -0,0 +1,52 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.capedwarf.images.transform;
+
+import java.awt.image.BufferedImage;
+
+import com.google.appengine.api.images.Transform;
+
+/**
+ * Transform that only changes image geometry, so it can be fused with its neighbours.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public abstract class GeometricTransform extends CapedwarfTransform {
+    public GeometricTransform(Transform transform) {
+        super(transform);
+    }
+
+    /**
+     * Append this transform to geometry.
+     *
+     * @param geometry the current geometry
+     */
+    public abstract void appendTo(Geometry geometry);
+
+    @Override
+    public BufferedImage applyTo(BufferedImage image) {
+        Geometry geometry = new Geometry(image.getWidth(), image.getHeight());
+        appendTo(geometry);
+        return geometry.render(image);
+    }
+}
@@ -0,0 +1,251 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.capedwarf.images.transform;
+
+import java.awt.Rectangle;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.NoninvertibleTransformException;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.AffineTransformOp;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.IndexColorModel;
+import java.awt.image.WritableRaster;
+
+/**
+ * Accumulated geometry of consecutive geometric transforms.
+ *
+ * Each step is pre-concatenated to a single affine transform, while the image size
+ * is tracked step by step, so the fused result has the same dimensions as the
+ * transforms applied one after another -- but it's rendered only once.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class Geometry {
+    private final AffineTransform transform = new AffineTransform();
+    private int width;
+    private int height;
+    private boolean interpolate;
+
+    public Geometry(int width, int height) {
+        this.width = width;
+        this.height = height;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Append transformation.
+     * The new size is computed the same way AffineTransformOp sizes its destination.
+     *
+     * @param tx          the transformation
+     * @param interpolate does it need interpolation, or is nearest neighbor exact
+     */
+    public void append(AffineTransform tx, boolean interpolate) {
+        float[] pts = {0, 0, width, 0, width, height, 0, height};
+        tx.transform(pts, 0, pts, 0, 4);
+        float minX = pts[0], minY = pts[1], maxX = pts[0], maxY = pts[1];
+        for (int i = 2; i < pts.length; i += 2) {
+            minX = Math.min(minX, pts[i]);
+            maxX = Math.max(maxX, pts[i]);
+            minY = Math.min(minY, pts[i + 1]);
+            maxY = Math.max(maxY, pts[i + 1]);
+        }
+        Rectangle bounds = new Rectangle2D.Float(minX, minY, maxX - minX, maxY - minY).getBounds();
+
+        transform.preConcatenate(tx);
+        width = bounds.x + bounds.width;
+        height = bounds.y + bounds.height;
+        this.interpolate |= interpolate;
+    }
+
+    /**
+     * Append crop.
+     *
+     * @param x      the left
+     * @param y      the top
+     * @param width  the cropped width
+     * @param height the cropped height
+     */
+    public void crop(int x, int y, int width, int height) {
+        if (x < 0 || y < 0 || width <= 0 || height <= 0 || x + width > this.width || y + height > this.height) {
+            throw new IllegalArgumentException("Crop [" + x + ", " + y + ", " + width + ", " + height + "] outside of image bounds " + this.width + "x" + this.height);
+        }
+        transform.preConcatenate(AffineTransform.getTranslateInstance(-x, -y));
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * Get the part of the source image this geometry actually reads.
+     *
+     * @param sourceWidth  the source width
+     * @param sourceHeight the source height
+     * @return source region
+     */
+    public Rectangle getSourceRegion(int sourceWidth, int sourceHeight) {
+        Rectangle source = new Rectangle(0, 0, sourceWidth, sourceHeight);
+        try {
+            Rectangle region = transform.createInverse().createTransformedShape(new Rectangle(0, 0, width, height)).getBounds();
+            if (interpolate) {
+                region.grow(1, 1); // bilinear reads neighbours
+            }
+            region = region.intersection(source);
+            return region.isEmpty() ? source : region;
+        } catch (NoninvertibleTransformException e) {
+            return source;
+        }
+    }
+
+    /**
+     * Get the scale factor along the source x axis.
+     *
+     * @return the scale factor
+     */
+    public double getScaleX() {
+        return getScaleX(transform);
+    }
+
+    /**
+     * Get the scale factor along the source y axis.
+     *
+     * @return the scale factor
+     */
+    public double getScaleY() {
+        return getScaleY(transform);
+    }
+
+    // length of the transformed source unit vectors, so rotation doesn't swap the axes
+    private static double getScaleX(AffineTransform tx) {
+        return Math.hypot(tx.getScaleX(), tx.getShearY());
+    }
+
+    private static double getScaleY(AffineTransform tx) {
+        return Math.hypot(tx.getShearX(), tx.getScaleY());
+    }
+
+    /**
+     * Geometry of an image decoded from the source region, taking every n-th column and m-th row.
+     *
+     * @param region       the decoded source region
+     * @param subsamplingX the column subsampling
+     * @param subsamplingY the row subsampling
+     * @return geometry relative to the decoded image
+     */
+    public Geometry forSourceRegion(Rectangle region, int subsamplingX, int subsamplingY) {
+        Geometry geometry = new Geometry(width, height);
+        geometry.transform.setTransform(transform);
+        geometry.transform.translate(region.x, region.y);
+        geometry.transform.scale(subsamplingX, subsamplingY);
+        geometry.interpolate = interpolate || subsamplingX > 1 || subsamplingY > 1;
+        return geometry;
+    }
+
+    /**
+     * Render the image into a single destination raster.
+     *
+     * @param image the source image
+     * @return transformed image
+     */
+    public BufferedImage render(BufferedImage image) {
+        if (transform.isIdentity() && width == image.getWidth() && height == image.getHeight()) {
+            return image;
+        }
+
+        if (isIntegralTranslation()) {
+            int x = (int) -transform.getTranslateX();
+            int y = (int) -transform.getTranslateY();
+            if (x >= 0 && y >= 0 && x + width <= image.getWidth() && y + height <= image.getHeight()) {
+                return image.getSubimage(x, y, width, height);
+            }
+        }
+
+        AffineTransform tx = new AffineTransform(transform);
+        if (interpolate) {
+            image = downscale(image, tx);
+        }
+
+        AffineTransformOp op = new AffineTransformOp(tx, interpolate ? AffineTransformOp.TYPE_BILINEAR : AffineTransformOp.TYPE_NEAREST_NEIGHBOR);
+        return op.filter(image, createDestination(image, width, height));
+    }
+
+    /**
+     * Progressive downscale; bilinear interpolation only reads 2x2 neighbours,
+     * so the image is halved until the remaining scale is at least 1/2.
+     * The transform is adjusted to start from the returned image.
+     */
+    private BufferedImage downscale(BufferedImage image, AffineTransform tx) {
+        double scaleX = getScaleX(tx);
+        double scaleY = getScaleY(tx);
+        if (scaleX >= 0.5 && scaleY >= 0.5) {
+            return image;
+        }
+
+        Rectangle region = getSourceRegion(image.getWidth(), image.getHeight());
+        if (region.width < image.getWidth() || region.height < image.getHeight()) {
+            image = image.getSubimage(region.x, region.y, region.width, region.height);
+            tx.translate(region.x, region.y);
+        }
+
+        while ((scaleX < 0.5 && image.getWidth() > 1) || (scaleY < 0.5 && image.getHeight() > 1)) {
+            // exact halves, so each pixel averages 2x2 source pixels; odd last row / column is dropped
+            double fx = (scaleX < 0.5 && image.getWidth() > 1) ? 0.5 : 1;
+            double fy = (scaleY < 0.5 && image.getHeight() > 1) ? 0.5 : 1;
+            int w = (int) (image.getWidth() * fx);
+            int h = (int) (image.getHeight() * fy);
+
+            AffineTransformOp op = new AffineTransformOp(AffineTransform.getScaleInstance(fx, fy), AffineTransformOp.TYPE_BILINEAR);
+            image = op.filter(image, createDestination(image, w, h));
+
+            tx.scale(1 / fx, 1 / fy);
+            scaleX /= fx;
+            scaleY /= fy;
+        }
+        return image;
+    }
+
+    private boolean isIntegralTranslation() {
+        int type = transform.getType();
+        if (type != AffineTransform.TYPE_IDENTITY && type != AffineTransform.TYPE_TRANSLATION) {
+            return false;
+        }
+        return transform.getTranslateX() == Math.rint(transform.getTranslateX()) && transform.getTranslateY() == Math.rint(transform.getTranslateY());
+    }
+
+    // same as AffineTransformOp::createCompatibleDestImage, but with our size
+    private BufferedImage createDestination(BufferedImage image, int width, int height) {
+        ColorModel cm = image.getColorModel();
+        if (interpolate && (cm instanceof IndexColorModel || cm.getTransparency() == ColorModel.OPAQUE)) {
+            return new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        } else {
+            WritableRaster raster = image.getRaster().createCompatibleWritableRaster(width, height);
+            return new BufferedImage(cm, raster, cm.isAlphaPremultiplied(), null);
+        }
+    }
+}
@@ -22,17 +22,25 @@
 
 package org.jboss.capedwarf.images.transform;
 
+import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
 
 import com.google.appengine.api.images.Transform;
+import org.jboss.capedwarf.images.util.ImageUtils;
+import org.jboss.capedwarf.images.util.RowBands;
 
 /**
  * GAE's ImFeelingLucky image transform enhances color & contrast of the supplied image.
- * This implementation does nothing yet.
+ * This implementation stretches the levels of each color channel,
+ * ignoring the darkest and the brightest 0.5% of pixels.
  *
  * @author <a href="mailto:marko.luksa@gmail.com">Marko Luksa</a>
  */
 public class ImFeelingLuckyTransform extends CapedwarfTransform {
+    private static final double CLIP = 0.005;
 
     public ImFeelingLuckyTransform(Transform transform) {
         super(transform);
@@ -40,6 +48,91 @@ public class ImFeelingLuckyTransform extends CapedwarfTransform {
 
     @Override
     public BufferedImage applyTo(BufferedImage image) {
-        return image;
+        final BufferedImage source;
+        final BufferedImage target;
+        if (isPackedInt(image)) {
+            source = image;
+            target = new BufferedImage(image.getWidth(), image.getHeight(), image.getType());
+        } else {
+            source = toPackedInt(image);
+            target = source;
+        }
+
+        final int[][] luts = createLookupTables(ImageUtils.histogram(source), source.getWidth() * source.getHeight());
+
+        final WritableRaster src = source.getRaster();
+        final WritableRaster dst = target.getRaster();
+        final SinglePixelPackedSampleModel srcModel = (SinglePixelPackedSampleModel) src.getSampleModel();
+        final SinglePixelPackedSampleModel dstModel = (SinglePixelPackedSampleModel) dst.getSampleModel();
+        final DataBufferInt srcBuffer = (DataBufferInt) src.getDataBuffer();
+        final DataBufferInt dstBuffer = (DataBufferInt) dst.getDataBuffer();
+        final int width = src.getWidth();
+
+        RowBands.execute(width, src.getHeight(), new RowBands.Task<Void>() {
+            public Void compute(int minY, int maxY) {
+                int[] in = srcBuffer.getData();
+                int[] out = dstBuffer.getData();
+                int[] red = luts[0], green = luts[1], blue = luts[2];
+                for (int y = minY; y < maxY; y++) {
+                    int i = srcBuffer.getOffset() + srcModel.getOffset(-src.getSampleModelTranslateX(), y - src.getSampleModelTranslateY());
+                    int o = dstBuffer.getOffset() + dstModel.getOffset(-dst.getSampleModelTranslateX(), y - dst.getSampleModelTranslateY());
+                    for (int end = i + width; i < end; i++, o++) {
+                        int pixel = in[i];
+                        out[o] = (pixel & 0xFF000000)
+                            | (red[(pixel >>> 16) & 0xFF] << 16)
+                            | (green[(pixel >>> 8) & 0xFF] << 8)
+                            | blue[pixel & 0xFF];
+                    }
+                }
+                return null;
+            }
+
+            public Void merge(Void left, Void right) {
+                return null;
+            }
+        });
+        return target;
+    }
+
+    private static boolean isPackedInt(BufferedImage image) {
+        int type = image.getType();
+        return (type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_INT_ARGB) && ImageUtils.isPackedIntRGB(image.getRaster());
+    }
+
+    private static BufferedImage toPackedInt(BufferedImage image) {
+        int type = image.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+        BufferedImage copy = new BufferedImage(image.getWidth(), image.getHeight(), type);
+        Graphics2D g = copy.createGraphics();
+        try {
+            g.drawImage(image, 0, 0, null);
+        } finally {
+            g.dispose();
+        }
+        return copy;
+    }
+
+    private static int[][] createLookupTables(int[][] histogram, int pixels) {
+        final int clip = (int) (pixels * CLIP);
+        int[][] luts = new int[3][256];
+        for (int c = 0; c < 3; c++) {
+            int low = 0;
+            int count = histogram[c][low];
+            while (count <= clip && low < 255) {
+                count += histogram[c][++low];
+            }
+            int high = 255;
+            count = histogram[c][high];
+            while (count <= clip && high > 0) {
+                count += histogram[c][--high];
+            }
+            for (int v = 0; v < 256; v++) {
+                if (high <= low) {
+                    luts[c][v] = v;
+                } else {
+                    luts[c][v] = Math.max(0, Math.min(255, (v - low) * 255 / (high - low)));
+                }
+            }
+        }
+        return luts;
     }
 }
@@ -0,0 +1,93 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.capedwarf.images.transform;
+
+/**
+ * Resize parameters, resolved once from GAE's resize transform.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+final class ResizeSpec {
+    private final int width;
+    private final int height;
+    private final boolean cropToFit;
+    private final float cropOffsetX;
+    private final float cropOffsetY;
+    private final boolean allowStretch;
+
+    ResizeSpec(int width, int height, boolean cropToFit, float cropOffsetX, float cropOffsetY, boolean allowStretch) {
+        this.width = width;
+        this.height = height;
+        this.cropToFit = cropToFit;
+        this.cropOffsetX = cropOffsetX;
+        this.cropOffsetY = cropOffsetY;
+        this.allowStretch = allowStretch;
+    }
+
+    int getWidth() {
+        return width;
+    }
+
+    int getHeight() {
+        return height;
+    }
+
+    boolean isCropToFit() {
+        return cropToFit;
+    }
+
+    float getCropOffsetX() {
+        return cropOffsetX;
+    }
+
+    float getCropOffsetY() {
+        return cropOffsetY;
+    }
+
+    boolean isAllowStretch() {
+        return allowStretch;
+    }
+
+    /**
+     * Compute scale factors for the source size.
+     *
+     * @param sourceWidth  the source width
+     * @param sourceHeight the source height
+     * @return x and y scale factor
+     */
+    double[] getScale(int sourceWidth, int sourceHeight) {
+        double scaleX = (double) width / sourceWidth;
+        double scaleY = (double) height / sourceHeight;
+
+        if (cropToFit) {
+            double max = Math.max(scaleX, scaleY);
+            scaleX = max;
+            scaleY = max;
+        } else if (allowStretch == false) {
+            double min = Math.min(scaleX, scaleY);
+            scaleX = min;
+            scaleY = min;
+        }
+        return new double[]{scaleX, scaleY};
+    }
+}
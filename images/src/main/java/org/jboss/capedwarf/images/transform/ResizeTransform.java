@@ -23,75 +23,37 @@
 package org.jboss.capedwarf.images.transform;
 
 import java.awt.geom.AffineTransform;
-import java.awt.image.AffineTransformOp;
-import java.awt.image.BufferedImage;
 
 import com.google.appengine.api.images.Transform;
 
 /**
  * @author <a href="mailto:marko.luksa@gmail.com">Marko Luksa</a>
  */
-public class ResizeTransform extends CapedwarfTransform {
+public class ResizeTransform extends GeometricTransform {
+    private final ResizeSpec spec;
 
     public ResizeTransform(Transform transform) {
         super(transform);
+        this.spec = new ResizeSpec(
+            this.<Integer>getFieldValue("width"),
+            this.<Integer>getFieldValue("height"),
+            this.<Boolean>getFieldValue("cropToFit"),
+            this.<Float>getFieldValue("cropOffsetX"),
+            this.<Float>getFieldValue("cropOffsetY"),
+            this.<Boolean>getFieldValue("allowStretch"));
     }
 
     @Override
-    public BufferedImage applyTo(BufferedImage image) {
-        double scaleXFactor = (double) getWidth() / image.getWidth();
-        double scaleYFactor = (double) getHeight() / image.getHeight();
-
-        if (isCropToFit()) {
-            double maxFactor = Math.max(scaleXFactor, scaleYFactor);
-            scaleXFactor = maxFactor;
-            scaleYFactor = maxFactor;
-        } else if (isRetainAspectRatio()) {
-            double minFactor = Math.min(scaleXFactor, scaleYFactor);
-            scaleXFactor = minFactor;
-            scaleYFactor = minFactor;
+    public void appendTo(Geometry geometry) {
+        double[] scale = spec.getScale(geometry.getWidth(), geometry.getHeight());
+        geometry.append(AffineTransform.getScaleInstance(scale[0], scale[1]), true);
+
+        if (spec.isCropToFit()) {
+            geometry.crop(
+                (int) (spec.getCropOffsetX() * (geometry.getWidth() - spec.getWidth())),
+                (int) (spec.getCropOffsetY() * (geometry.getHeight() - spec.getHeight())),
+                spec.getWidth(),
+                spec.getHeight());
         }
-
-        AffineTransform tx = AffineTransform.getScaleInstance(scaleXFactor, scaleYFactor);
-        AffineTransformOp op = new AffineTransformOp(tx, AffineTransformOp.TYPE_BILINEAR);
-        BufferedImage transformedImage = op.filter(image, null);
-
-        if (isCropToFit()) {
-            transformedImage = transformedImage.getSubimage(
-                (int) (getCropOffsetX() * (transformedImage.getWidth() - getWidth())),
-                (int) (getCropOffsetY() * (transformedImage.getHeight() - getHeight())),
-                getWidth(),
-                getHeight());
-        }
-        return transformedImage;
-    }
-
-    private boolean isRetainAspectRatio() {
-        return !isAllowStretch();
-    }
-
-    private int getWidth() {
-        return (Integer) getFieldValue("width");
-    }
-
-    private int getHeight() {
-        return (Integer) getFieldValue("height");
     }
-
-    private boolean isCropToFit() {
-        return (Boolean) getFieldValue("cropToFit");
-    }
-
-    private float getCropOffsetX() {
-        return (Float) getFieldValue("cropOffsetX");
-    }
-
-    private float getCropOffsetY() {
-        return (Float) getFieldValue("cropOffsetY");
-    }
-
-    private boolean isAllowStretch() {
-        return (Boolean) getFieldValue("allowStretch");
-    }
-
 }
@@ -23,26 +23,23 @@
 package org.jboss.capedwarf.images.transform;
 
 import java.awt.geom.AffineTransform;
-import java.awt.image.AffineTransformOp;
-import java.awt.image.BufferedImage;
 
 import com.google.appengine.api.images.Transform;
 
 /**
  * @author <a href="mailto:marko.luksa@gmail.com">Marko Luksa</a>
  */
-public class RotateTransform extends CapedwarfTransform {
+public class RotateTransform extends GeometricTransform {
 
     public RotateTransform(Transform transform) {
         super(transform);
     }
 
     @Override
-    public BufferedImage applyTo(BufferedImage image) {
+    public void appendTo(Geometry geometry) {
         AffineTransform tx = AffineTransform.getQuadrantRotateInstance(getNumOfQuadrants());
-        translateCoordinates(tx, image.getWidth(), image.getHeight());
-        AffineTransformOp op = new AffineTransformOp(tx, AffineTransformOp.TYPE_NEAREST_NEIGHBOR);
-        return op.filter(image, null);
+        translateCoordinates(tx, geometry.getWidth(), geometry.getHeight());
+        geometry.append(tx, false);
     }
 
     private int getNumOfQuadrants() {
@@ -0,0 +1,187 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.capedwarf.images.transform;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import com.google.appengine.api.images.Transform;
+import org.jboss.capedwarf.images.util.ImageUtils;
+
+/**
+ * Compiled chain of transforms.
+ *
+ * Consecutive geometric transforms (resize, rotate, flip, crop) are fused into a single
+ * affine transform and rendered once. When the chain starts with geometric transforms
+ * and the image is still encoded, only the needed source region is decoded,
+ * subsampled if the image is heavily scaled down.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class TransformPipeline {
+    private final List<CapedwarfTransform> steps;
+
+    private TransformPipeline(List<CapedwarfTransform> steps) {
+        this.steps = steps;
+    }
+
+    public static TransformPipeline compile(Transform transform) {
+        List<CapedwarfTransform> steps = new ArrayList<CapedwarfTransform>();
+        flatten(CapedwarfTransformFactory.createJBossTransform(transform), steps);
+        return new TransformPipeline(steps);
+    }
+
+    static TransformPipeline compile(List<Transform> transforms) {
+        List<CapedwarfTransform> steps = new ArrayList<CapedwarfTransform>();
+        for (Transform transform : transforms) {
+            flatten(CapedwarfTransformFactory.createJBossTransform(transform), steps);
+        }
+        return new TransformPipeline(steps);
+    }
+
+    private static void flatten(CapedwarfTransform transform, List<CapedwarfTransform> steps) {
+        if (transform instanceof CompositeTransform) {
+            for (Transform t : ((CompositeTransform) transform).getTransforms()) {
+                flatten(CapedwarfTransformFactory.createJBossTransform(t), steps);
+            }
+        } else {
+            steps.add(transform);
+        }
+    }
+
+    /**
+     * Apply transforms to decoded image.
+     *
+     * @param image the image
+     * @return transformed image
+     */
+    public BufferedImage applyTo(BufferedImage image) {
+        return applyTo(image, steps);
+    }
+
+    /**
+     * Decode and apply transforms.
+     *
+     * @param imageData the encoded image
+     * @return transformed image
+     */
+    public BufferedImage applyTo(byte[] imageData) {
+        int leading = countLeadingGeometricSteps();
+        if (leading == 0) {
+            return applyTo(ImageUtils.convertToBufferedImage(imageData), steps);
+        }
+
+        try {
+            ImageInputStream input = ImageIO.createImageInputStream(new ByteArrayInputStream(imageData));
+            try {
+                Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+                if (readers.hasNext() == false) {
+                    return applyTo(ImageUtils.convertToBufferedImage(imageData), steps);
+                }
+                ImageReader reader = readers.next();
+                try {
+                    reader.setInput(input, true, true);
+                    int sourceWidth = reader.getWidth(0);
+                    int sourceHeight = reader.getHeight(0);
+
+                    Geometry geometry = new Geometry(sourceWidth, sourceHeight);
+                    for (CapedwarfTransform step : steps.subList(0, leading)) {
+                        ((GeometricTransform) step).appendTo(geometry);
+                    }
+
+                    Rectangle region = geometry.getSourceRegion(sourceWidth, sourceHeight);
+                    int subsamplingX = getSubsampling(geometry.getScaleX(), region.width);
+                    int subsamplingY = getSubsampling(geometry.getScaleY(), region.height);
+
+                    ImageReadParam param = reader.getDefaultReadParam();
+                    param.setSourceRegion(region);
+                    param.setSourceSubsampling(subsamplingX, subsamplingY, 0, 0);
+                    BufferedImage image = reader.read(0, param);
+
+                    image = geometry.forSourceRegion(region, subsamplingX, subsamplingY).render(image);
+                    return applyTo(image, steps.subList(leading, steps.size()));
+                } finally {
+                    reader.dispose();
+                }
+            } finally {
+                input.close();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Subsample only while at least two decoded pixels still contribute to each target pixel.
+     * Computed per axis, as a non-uniform resize scales the axes differently.
+     *
+     * @param scale  the scale along the axis
+     * @param length the region length along the axis
+     * @return the subsampling
+     */
+    static int getSubsampling(double scale, int length) {
+        if (scale <= 0) {
+            return 1;
+        }
+        int subsampling = (int) Math.floor(1 / (2 * scale));
+        subsampling = Math.min(subsampling, length);
+        return Math.max(1, subsampling);
+    }
+
+    private int countLeadingGeometricSteps() {
+        int count = 0;
+        while (count < steps.size() && steps.get(count) instanceof GeometricTransform) {
+            count++;
+        }
+        return count;
+    }
+
+    private static BufferedImage applyTo(BufferedImage image, List<CapedwarfTransform> steps) {
+        Geometry geometry = null;
+        for (CapedwarfTransform step : steps) {
+            if (step instanceof GeometricTransform) {
+                if (geometry == null) {
+                    geometry = new Geometry(image.getWidth(), image.getHeight());
+                }
+                ((GeometricTransform) step).appendTo(geometry);
+            } else {
+                if (geometry != null) {
+                    image = geometry.render(image);
+                    geometry = null;
+                }
+                image = step.applyTo(image);
+            }
+        }
+        return (geometry != null) ? geometry.render(image) : image;
+    }
+}
@@ -23,26 +23,22 @@
 package org.jboss.capedwarf.images.transform;
 
 import java.awt.geom.AffineTransform;
-import java.awt.image.AffineTransformOp;
-import java.awt.image.BufferedImage;
 
 import com.google.appengine.api.images.Transform;
 
 /**
  * @author <a href="mailto:marko.luksa@gmail.com">Marko Luksa</a>
  */
-public class VerticalFlipTransform extends CapedwarfTransform {
+public class VerticalFlipTransform extends GeometricTransform {
 
     public VerticalFlipTransform(Transform transform) {
         super(transform);
     }
 
     @Override
-    public BufferedImage applyTo(BufferedImage image) {
+    public void appendTo(Geometry geometry) {
         AffineTransform tx = AffineTransform.getScaleInstance(1, -1);
-        tx.translate(0, -image.getHeight());
-
-        AffineTransformOp op = new AffineTransformOp(tx, AffineTransformOp.TYPE_NEAREST_NEIGHBOR);
-        return op.filter(image, null);
+        tx.translate(0, -geometry.getHeight());
+        geometry.append(tx, false);
     }
 }
@@ -24,8 +24,13 @@ package org.jboss.capedwarf.images.util;
 
 import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.Raster;
 import java.awt.image.RenderedImage;
-import java.awt.image.WritableRaster;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
@@ -54,18 +59,98 @@ public class ImageUtils {
     }
 
     public static int[][] histogram(BufferedImage bufferedImage) {
-        int[][] histogram = new int[3][256];
-        WritableRaster raster = bufferedImage.getRaster();
-        int pixel[] = new int[4];
-        for (int y = 0; y < raster.getHeight(); y++) {
-            for (int x = 0; x < raster.getWidth(); x++) {
-                raster.getPixel(x, y, pixel);
+        final Raster raster = bufferedImage.getRaster();
+        return RowBands.execute(raster.getWidth(), raster.getHeight(), new RowBands.Task<int[][]>() {
+            public int[][] compute(int minY, int maxY) {
+                int[][] histogram = new int[3][256];
+                histogram(raster, minY, maxY, histogram);
+                return histogram;
+            }
+
+            public int[][] merge(int[][] left, int[][] right) {
                 for (int i = 0; i < 3; i++) {
-                    histogram[i][pixel[i]]++;
+                    for (int j = 0; j < 256; j++) {
+                        left[i][j] += right[i][j];
+                    }
+                }
+                return left;
+            }
+        });
+    }
+
+    /**
+     * Does the raster keep 8-bit RGB samples packed into a single int array.
+     *
+     * @param raster the raster
+     * @return true if packed int raster
+     */
+    public static boolean isPackedIntRGB(Raster raster) {
+        if (raster.getDataBuffer() instanceof DataBufferInt && raster.getSampleModel() instanceof SinglePixelPackedSampleModel) {
+            SampleModel sm = raster.getSampleModel();
+            return sm.getNumBands() >= 3 && sm.getSampleSize(0) == 8 && sm.getSampleSize(1) == 8 && sm.getSampleSize(2) == 8;
+        }
+        return false;
+    }
+
+    private static boolean isInterleavedByteRGB(Raster raster) {
+        if (raster.getDataBuffer() instanceof DataBufferByte && raster.getSampleModel() instanceof PixelInterleavedSampleModel) {
+            return raster.getSampleModel().getNumBands() >= 3;
+        }
+        return false;
+    }
+
+    private static void histogram(Raster raster, int minY, int maxY, int[][] histogram) {
+        final int width = raster.getWidth();
+        final int tx = raster.getSampleModelTranslateX();
+        final int ty = raster.getSampleModelTranslateY();
+        final int x0 = raster.getMinX();
+        final int y0 = raster.getMinY();
+
+        if (isPackedIntRGB(raster)) {
+            SinglePixelPackedSampleModel sm = (SinglePixelPackedSampleModel) raster.getSampleModel();
+            DataBufferInt db = (DataBufferInt) raster.getDataBuffer();
+            int[] data = db.getData();
+            int[] offsets = sm.getBitOffsets();
+            int r = offsets[0], g = offsets[1], b = offsets[2];
+            int[] red = histogram[0], green = histogram[1], blue = histogram[2];
+            for (int y = minY; y < maxY; y++) {
+                int index = db.getOffset() + sm.getOffset(x0 - tx, y0 + y - ty);
+                for (int end = index + width; index < end; index++) {
+                    int pixel = data[index];
+                    red[(pixel >>> r) & 0xFF]++;
+                    green[(pixel >>> g) & 0xFF]++;
+                    blue[(pixel >>> b) & 0xFF]++;
+                }
+            }
+        } else if (isInterleavedByteRGB(raster)) {
+            PixelInterleavedSampleModel sm = (PixelInterleavedSampleModel) raster.getSampleModel();
+            DataBufferByte db = (DataBufferByte) raster.getDataBuffer();
+            byte[] data = db.getData();
+            int[] offsets = sm.getBandOffsets();
+            int r = offsets[0], g = offsets[1], b = offsets[2];
+            int stride = sm.getPixelStride();
+            int[] red = histogram[0], green = histogram[1], blue = histogram[2];
+            for (int y = minY; y < maxY; y++) {
+                int index = db.getOffset() + (y0 + y - ty) * sm.getScanlineStride() + (x0 - tx) * stride;
+                for (int end = index + width * stride; index < end; index += stride) {
+                    red[data[index + r] & 0xFF]++;
+                    green[data[index + g] & 0xFF]++;
+                    blue[data[index + b] & 0xFF]++;
+                }
+            }
+        } else {
+            // generic path; bands missing from the raster count as tone 0
+            int bands = raster.getNumBands();
+            int[] row = new int[width * bands];
+            for (int y = minY; y < maxY; y++) {
+                raster.getPixels(x0, y0 + y, width, 1, row);
+                for (int index = 0; index < row.length; index += bands) {
+                    for (int i = 0; i < 3; i++) {
+                        histogram[i][i < bands ? row[index + i] : 0]++;
+                    }
                 }
             }
         }
-        return histogram;
     }
 
 }
@@ -0,0 +1,134 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.capedwarf.images.util;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveTask;
+
+import org.jboss.capedwarf.common.threads.DaemonThreadFactory;
+
+/**
+ * Splits an image into horizontal row bands, and processes large images' bands in parallel.
+ * The pool is shared by all apps and lives as long as the container; its daemon threads have no context classloader.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public final class RowBands {
+    private static final int BAND_PIXELS = Integer.parseInt(System.getProperty("jboss.capedwarf.images.bandPixels", String.valueOf(256 * 1024)));
+
+    private static volatile ForkJoinPool pool;
+
+    private RowBands() {
+    }
+
+    /**
+     * Work on a band of rows.
+     *
+     * @param <T> the partial result type
+     */
+    public static interface Task<T> {
+        /**
+         * Process rows [minY, maxY).
+         *
+         * @param minY the first row
+         * @param maxY the row after the last one
+         * @return partial result
+         */
+        T compute(int minY, int maxY);
+
+        /**
+         * Merge two partial results; left covers the rows before right.
+         */
+        T merge(T left, T right);
+    }
+
+    /**
+     * Run the task over all rows.
+     * Small images are processed in the calling thread.
+     *
+     * @param width the image width
+     * @param height the image height
+     * @param task the task
+     * @return merged result
+     */
+    public static <T> T execute(int width, int height, Task<T> task) {
+        final int rows = Math.max(1, BAND_PIXELS / Math.max(1, width));
+        if (height <= rows) {
+            return task.compute(0, height);
+        }
+        return getPool().invoke(new Band<T>(task, 0, height, rows));
+    }
+
+    private static ForkJoinPool getPool() {
+        if (pool == null) {
+            synchronized (RowBands.class) {
+                if (pool == null) {
+                    pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors(), new BandThreadFactory(), null, false);
+                }
+            }
+        }
+        return pool;
+    }
+
+    private static class BandThreadFactory implements ForkJoinPool.ForkJoinWorkerThreadFactory {
+        public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+            ForkJoinWorkerThread thread = DaemonThreadFactory.prepare(new BandThread(pool));
+            thread.setName("CapeDwarf-RowBands-" + thread.getPoolIndex());
+            return thread;
+        }
+    }
+
+    private static class BandThread extends ForkJoinWorkerThread {
+        private BandThread(ForkJoinPool pool) {
+            super(pool);
+        }
+    }
+
+    private static class Band<T> extends RecursiveTask<T> {
+        private static final long serialVersionUID = 1L;
+
+        private final Task<T> task;
+        private final int minY;
+        private final int maxY;
+        private final int rows;
+
+        private Band(Task<T> task, int minY, int maxY, int rows) {
+            this.task = task;
+            this.minY = minY;
+            this.maxY = maxY;
+            this.rows = rows;
+        }
+
+        protected T compute() {
+            if (maxY - minY <= rows) {
+                return task.compute(minY, maxY);
+            }
+            int middle = (minY + maxY) >>> 1;
+            Band<T> left = new Band<T>(task, minY, middle, rows);
+            left.fork();
+            T right = new Band<T>(task, middle, maxY, rows).compute();
+            return task.merge(left.join(), right);
+        }
+    }
+}
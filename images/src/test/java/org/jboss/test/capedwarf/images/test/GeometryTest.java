@@ -0,0 +1,135 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.test.capedwarf.images.test;
+
+import java.awt.Rectangle;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+
+import com.google.appengine.api.images.ImagesServiceFactory;
+import com.google.appengine.api.images.Transform;
+import org.jboss.capedwarf.images.transform.Geometry;
+import org.jboss.capedwarf.images.transform.ResizeTransform;
+import org.jboss.test.capedwarf.common.support.JBoss;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Size, scale and source region computed by Geometry, with resize parameters resolved by ResizeSpec.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+@Category(JBoss.class)
+public class GeometryTest {
+
+    @Test
+    public void resizeKeepsAspectRatio() {
+        Geometry geometry = resize(400, 200, ImagesServiceFactory.makeResize(100, 100));
+        assertEquals(100, geometry.getWidth());
+        assertEquals(50, geometry.getHeight());
+        assertEquals(0.25, geometry.getScaleX(), 0.0001);
+        assertEquals(0.25, geometry.getScaleY(), 0.0001);
+    }
+
+    @Test
+    public void resizeCanUpscale() {
+        Geometry geometry = resize(50, 100, ImagesServiceFactory.makeResize(200, 200));
+        assertEquals(100, geometry.getWidth());
+        assertEquals(200, geometry.getHeight());
+        assertEquals(2.0, geometry.getScaleX(), 0.0001);
+    }
+
+    @Test
+    public void cropToFitFillsTargetAndCropsCenter() {
+        Geometry geometry = resize(400, 200, ImagesServiceFactory.makeResize(100, 100, 0.5f, 0.5f));
+        assertEquals(100, geometry.getWidth());
+        assertEquals(100, geometry.getHeight());
+        assertEquals(0.5, geometry.getScaleX(), 0.0001);
+        assertEquals(0.5, geometry.getScaleY(), 0.0001);
+        // center 200x200 of the source, plus a pixel for interpolation
+        assertEquals(new Rectangle(99, 0, 202, 200), geometry.getSourceRegion(400, 200));
+    }
+
+    @Test
+    public void cropToFitHonoursOffset() {
+        Geometry geometry = resize(400, 200, ImagesServiceFactory.makeResize(100, 100, 0.0f, 0.0f));
+        assertEquals(new Rectangle(0, 0, 201, 200), geometry.getSourceRegion(400, 200));
+    }
+
+    @Test
+    public void cropReadsOnlyCroppedRegion() {
+        Geometry geometry = new Geometry(400, 200);
+        geometry.crop(10, 20, 100, 50);
+        assertEquals(100, geometry.getWidth());
+        assertEquals(50, geometry.getHeight());
+        assertEquals(new Rectangle(10, 20, 100, 50), geometry.getSourceRegion(400, 200));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void cropOutsideOfImageFails() {
+        new Geometry(400, 200).crop(350, 0, 100, 100);
+    }
+
+    @Test
+    public void rotationKeepsScalePerSourceAxis() {
+        Geometry geometry = new Geometry(400, 200);
+        geometry.append(AffineTransform.getScaleInstance(0.5, 0.25), true);
+        geometry.append(AffineTransform.getQuadrantRotateInstance(1), false);
+        assertEquals(0.5, geometry.getScaleX(), 0.0001);
+        assertEquals(0.25, geometry.getScaleY(), 0.0001);
+    }
+
+    @Test
+    public void subsampledSourceRegionScalesUp() {
+        Geometry geometry = resize(400, 200, ImagesServiceFactory.makeResize(100, 100));
+        Geometry decoded = geometry.forSourceRegion(new Rectangle(0, 0, 400, 200), 2, 4);
+        assertEquals(100, decoded.getWidth());
+        assertEquals(50, decoded.getHeight());
+        assertEquals(0.5, decoded.getScaleX(), 0.0001);
+        assertEquals(1.0, decoded.getScaleY(), 0.0001);
+    }
+
+    @Test
+    public void cropIsRenderedAsSubimage() {
+        BufferedImage image = new BufferedImage(40, 20, BufferedImage.TYPE_INT_RGB);
+        image.setRGB(10, 5, 0xFF0000);
+        Geometry geometry = new Geometry(40, 20);
+        geometry.crop(10, 5, 20, 10);
+
+        BufferedImage result = geometry.render(image);
+
+        assertEquals(20, result.getWidth());
+        assertEquals(10, result.getHeight());
+        assertEquals(0xFF0000, result.getRGB(0, 0) & 0xFFFFFF);
+        assertSame(image.getRaster().getDataBuffer(), result.getRaster().getDataBuffer());
+    }
+
+    private static Geometry resize(int width, int height, Transform transform) {
+        Geometry geometry = new Geometry(width, height);
+        new ResizeTransform(transform).appendTo(geometry);
+        return geometry;
+    }
+}
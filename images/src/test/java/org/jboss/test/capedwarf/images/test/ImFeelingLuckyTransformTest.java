@@ -0,0 +1,127 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.test.capedwarf.images.test;
+
+import java.awt.image.BufferedImage;
+
+import com.google.appengine.api.images.ImagesServiceFactory;
+import org.jboss.capedwarf.images.transform.ImFeelingLuckyTransform;
+import org.jboss.test.capedwarf.common.support.JBoss;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Pin the level stretching done by ImFeelingLucky.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+@Category(JBoss.class)
+public class ImFeelingLuckyTransformTest {
+
+    @Test
+    public void stretchesLevelsOfEachChannel() {
+        BufferedImage image = createImage(BufferedImage.TYPE_INT_RGB);
+
+        BufferedImage result = applyTo(image);
+
+        assertPixels(result);
+    }
+
+    @Test
+    public void byteImageIsStretchedLikeIntImage() {
+        BufferedImage image = createImage(BufferedImage.TYPE_3BYTE_BGR);
+
+        BufferedImage result = applyTo(image);
+
+        assertPixels(result);
+    }
+
+    @Test
+    public void darkestAndBrightestPixelsAreClipped() {
+        // 0.5% of 400 pixels are clipped at each end
+        BufferedImage image = new BufferedImage(400, 1, BufferedImage.TYPE_INT_RGB);
+        for (int x = 0; x < 400; x++) {
+            int value = (x < 200) ? 50 : 150;
+            image.setRGB(x, 0, rgb(value, value, value));
+        }
+        image.setRGB(0, 0, rgb(0, 0, 0));
+        image.setRGB(399, 0, rgb(255, 255, 255));
+
+        BufferedImage result = applyTo(image);
+
+        assertEquals(rgb(0, 0, 0), result.getRGB(0, 0) & 0xFFFFFF);
+        assertEquals(rgb(0, 0, 0), result.getRGB(1, 0) & 0xFFFFFF);
+        assertEquals(rgb(255, 255, 255), result.getRGB(200, 0) & 0xFFFFFF);
+        assertEquals(rgb(255, 255, 255), result.getRGB(399, 0) & 0xFFFFFF);
+    }
+
+    @Test
+    public void largeImageIsStretchedInBands() {
+        // more pixels than a single row band
+        int width = 1024;
+        int height = 600;
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int value = 64 + (x + y) % 128;
+                image.setRGB(x, y, rgb(value, value, value));
+            }
+        }
+
+        BufferedImage result = applyTo(image);
+
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int value = ((x + y) % 128) * 255 / 127;
+                assertEquals("Pixel " + x + "," + y, rgb(value, value, value), result.getRGB(x, y) & 0xFFFFFF);
+            }
+        }
+    }
+
+    private static BufferedImage createImage(int type) {
+        // red spans 64-192, green is flat, blue already spans the full range
+        BufferedImage image = new BufferedImage(4, 1, type);
+        image.setRGB(0, 0, rgb(64, 100, 0));
+        image.setRGB(1, 0, rgb(96, 100, 85));
+        image.setRGB(2, 0, rgb(128, 100, 170));
+        image.setRGB(3, 0, rgb(192, 100, 255));
+        return image;
+    }
+
+    private static void assertPixels(BufferedImage result) {
+        assertEquals(rgb(0, 100, 0), result.getRGB(0, 0) & 0xFFFFFF);
+        assertEquals(rgb(63, 100, 85), result.getRGB(1, 0) & 0xFFFFFF);
+        assertEquals(rgb(127, 100, 170), result.getRGB(2, 0) & 0xFFFFFF);
+        assertEquals(rgb(255, 100, 255), result.getRGB(3, 0) & 0xFFFFFF);
+    }
+
+    private static BufferedImage applyTo(BufferedImage image) {
+        return new ImFeelingLuckyTransform(ImagesServiceFactory.makeImFeelingLucky()).applyTo(image);
+    }
+
+    private static int rgb(int red, int green, int blue) {
+        return (red << 16) | (green << 8) | blue;
+    }
+}
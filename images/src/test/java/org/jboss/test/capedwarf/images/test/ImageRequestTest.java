@@ -24,6 +24,9 @@
 
 package org.jboss.test.capedwarf.images.test;
 
+import java.util.Date;
+
+import com.google.appengine.api.blobstore.BlobInfo;
 import com.google.appengine.api.blobstore.BlobKey;
 import org.jboss.capedwarf.images.ImageRequest;
 import org.jboss.test.capedwarf.common.support.JBoss;
@@ -65,5 +68,22 @@ public class ImageRequestTest {
         assertTrue(request.isCrop());
     }
 
+    @Test
+    public void variantKey() throws Exception {
+        assertEquals("blobkey123/orig", new ImageRequest("/blobkey123/").getVariantKey());
+        assertEquals("blobkey123/s32", new ImageRequest("/blobkey123/=s32").getVariantKey());
+        assertEquals("blobkey123/s32-c", new ImageRequest("/blobkey123/=s32-c").getVariantKey());
+    }
+
+    @Test
+    public void etagFollowsBlobContent() throws Exception {
+        BlobKey blobKey = new BlobKey("blobkey123");
+        BlobInfo blobInfo = new BlobInfo(blobKey, "image/png", new Date(1000), "a.png", 10, "abcd");
+        assertEquals("\"abcd/s32-c\"", new ImageRequest("/blobkey123/=s32-c").getETag(blobInfo));
+        assertEquals("\"abcd/orig\"", new ImageRequest("/blobkey123/").getETag(blobInfo));
+
+        BlobInfo otherContent = new BlobInfo(blobKey, "image/png", new Date(1000), "a.png", 10, "efgh");
+        assertFalse(new ImageRequest("/blobkey123/=s32").getETag(blobInfo).equals(new ImageRequest("/blobkey123/=s32").getETag(otherContent)));
+    }
 
 }
@@ -0,0 +1,121 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.test.capedwarf.images.test;
+
+import java.awt.image.BufferedImage;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+
+import com.google.appengine.api.images.ImagesServiceFactory;
+import com.google.appengine.api.images.Transform;
+import org.jboss.capedwarf.common.io.IOUtils;
+import org.jboss.capedwarf.images.transform.CapedwarfTransformFactory;
+import org.jboss.capedwarf.images.transform.Geometry;
+import org.jboss.capedwarf.images.transform.ResizeTransform;
+import org.jboss.capedwarf.images.transform.TransformPipeline;
+import org.jboss.capedwarf.images.util.ImageUtils;
+import org.jboss.test.capedwarf.common.support.JBoss;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compare fused pipeline with transforms applied one by one to the fully decoded image.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+@Category(JBoss.class)
+public class TransformPipelineTest {
+
+    @Test
+    public void resizeAndCropMatchesStepByStep() throws Exception {
+        byte[] data = readImage();
+        List<Transform> transforms = Arrays.asList(
+            ImagesServiceFactory.makeResize(100, 100),
+            ImagesServiceFactory.makeCrop(0.1, 0.1, 0.9, 0.9));
+
+        BufferedImage expected = applyStepByStep(data, transforms);
+        BufferedImage actual = TransformPipeline.compile(ImagesServiceFactory.makeCompositeTransform(transforms)).applyTo(data);
+
+        assertSameSize(expected, actual);
+        assertTrue("Pipeline differs from step by step transforms", meanDifference(expected, actual) < 1);
+    }
+
+    @Test
+    public void nonUniformResizeScalesAxesSeparately() throws Exception {
+        Geometry geometry = new Geometry(200, 143);
+        new ResizeTransform(ImagesServiceFactory.makeResize(20, 72, true)).appendTo(geometry);
+        assertEquals(20, geometry.getWidth());
+        assertEquals(72, geometry.getHeight());
+        assertEquals(0.1, geometry.getScaleX(), 0.0001);
+        assertEquals(72.0 / 143, geometry.getScaleY(), 0.0001);
+    }
+
+    @Test
+    public void nonUniformResizeMatchesStepByStep() throws Exception {
+        byte[] data = readImage();
+        List<Transform> transforms = Arrays.<Transform>asList(ImagesServiceFactory.makeResize(20, 72, true));
+
+        BufferedImage expected = applyStepByStep(data, transforms);
+        BufferedImage actual = TransformPipeline.compile(transforms.get(0)).applyTo(data);
+
+        assertSameSize(expected, actual);
+        // subsampling rows as heavily as columns roughly doubles the difference
+        assertTrue("Subsampled pipeline differs too much", meanDifference(expected, actual) < 8);
+    }
+
+    private static BufferedImage applyStepByStep(byte[] data, List<Transform> transforms) {
+        BufferedImage image = ImageUtils.convertToBufferedImage(data);
+        for (Transform transform : transforms) {
+            image = CapedwarfTransformFactory.createJBossTransform(transform).applyTo(image);
+        }
+        return image;
+    }
+
+    private static byte[] readImage() throws Exception {
+        InputStream stream = TransformPipelineTest.class.getClassLoader().getResourceAsStream(ImagesServiceTestBase.CAPEDWARF_PNG);
+        return IOUtils.toBytes(stream, true);
+    }
+
+    private static void assertSameSize(BufferedImage expected, BufferedImage actual) {
+        assertEquals(expected.getWidth(), actual.getWidth());
+        assertEquals(expected.getHeight(), actual.getHeight());
+    }
+
+    private static double meanDifference(BufferedImage expected, BufferedImage actual) {
+        long total = 0;
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                int p = expected.getRGB(x, y);
+                int q = actual.getRGB(x, y);
+                for (int shift = 0; shift < 24; shift += 8) {
+                    total += Math.abs(((p >> shift) & 0xFF) - ((q >> shift) & 0xFF));
+                }
+            }
+        }
+        return total / (3.0 * expected.getWidth() * expected.getHeight());
+    }
+}
@@ -27,7 +27,6 @@ import java.util.Collection;
 
 import javax.mail.MessagingException;
 import javax.mail.Session;
-import javax.mail.Transport;
 
 import com.google.appengine.api.mail.MailService;
 import org.jboss.capedwarf.common.config.CapedwarfEnvironment;
@@ -97,17 +96,6 @@ public class CapedwarfMailService implements MailService {
     }
 
     private void send(javax.mail.Message message) throws MessagingException {
-        Transport transport = openTransport();
-        try {
-            transport.sendMessage(message, message.getAllRecipients());
-        } finally {
-            transport.close();
-        }
-    }
-
-    private Transport openTransport() throws MessagingException {
-        Transport transport = getSession().getTransport();
-        transport.connect();
-        return transport;
+        TransportPool.getInstance(getSession()).send(message);
     }
 }
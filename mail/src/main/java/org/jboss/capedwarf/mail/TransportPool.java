@@ -0,0 +1,411 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.capedwarf.mail;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.mail.Address;
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.Transport;
+import javax.mail.URLName;
+
+import com.sun.mail.smtp.SMTPTransport;
+import org.jboss.capedwarf.common.app.Application;
+import org.jboss.capedwarf.common.shared.AppComponents;
+import org.jboss.capedwarf.common.threads.DaemonThreadFactory;
+import org.jboss.capedwarf.common.threads.UndeployHooks;
+
+/**
+ * Pool of connected mail transports.
+ *
+ * Transports idle for a while are validated before reuse (for SMTP, isConnected sends NOOP).
+ * A send that fails on a broken SMTP connection before any message data was sent
+ * is retried once on a fresh connection; once the data was sent, the server might have accepted it.
+ *
+ * Optionally, messages are queued and sent in batches by background workers.
+ * Messages the workers fail to send are logged and counted.
+ *
+ * There is one pool per app, closed when the app is undeployed.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public final class TransportPool {
+    private static final Logger log = Logger.getLogger(TransportPool.class.getName());
+
+    private static final int POOL_SIZE = Integer.getInteger("jboss.capedwarf.mail.poolSize", 4);
+    private static final long IDLE_TIMEOUT = Long.getLong("jboss.capedwarf.mail.idleTimeout", 60000L);
+    private static final long VALIDATE_AFTER = Long.getLong("jboss.capedwarf.mail.validateAfter", 5000L);
+    private static final long BORROW_TIMEOUT = Long.getLong("jboss.capedwarf.mail.borrowTimeout", 30000L);
+    private static final boolean ASYNC = Boolean.getBoolean("jboss.capedwarf.mail.async");
+    private static final int ASYNC_QUEUE_SIZE = Integer.getInteger("jboss.capedwarf.mail.asyncQueueSize", 1000);
+    private static final int BATCH_SIZE = 100;
+    private static final long POLL_TIMEOUT = 500L;
+
+    private final Session session;
+    private final Semaphore permits = new Semaphore(POOL_SIZE);
+    private final Deque<PooledTransport> idle = new LinkedList<PooledTransport>();
+    private final BlockingQueue<Message> queue;
+    private final List<Thread> workers = new ArrayList<Thread>();
+    private final AtomicLong asyncFailures = new AtomicLong();
+    private volatile boolean closed;
+
+    /**
+     * Create a pool.
+     *
+     * @param session the mail session
+     * @param async should messages be queued and sent by background workers
+     */
+    public TransportPool(Session session, boolean async) {
+        this.session = session;
+        if (async) {
+            queue = new LinkedBlockingQueue<Message>(ASYNC_QUEUE_SIZE);
+            DaemonThreadFactory factory = new DaemonThreadFactory("CapeDwarf-Mail");
+            for (int i = 0; i < POOL_SIZE; i++) {
+                Thread worker = factory.newThread(new Worker());
+                workers.add(worker);
+                worker.start();
+            }
+        } else {
+            queue = null;
+        }
+    }
+
+    static TransportPool getInstance(final Session session) {
+        final String appId = Application.getAppId();
+        return AppComponents.getOrCreate(appId, TransportPool.class, new AppComponents.Factory<TransportPool>() {
+            protected TransportPool create() {
+                final TransportPool created = new TransportPool(session, ASYNC);
+                UndeployHooks.add(appId, new Runnable() {
+                    public void run() {
+                        created.close();
+                    }
+                });
+                return created;
+            }
+
+            // a closed pool is left over from the app's previous deployment
+            protected boolean isValid(TransportPool pool) {
+                return pool.closed == false;
+            }
+        });
+    }
+
+    /**
+     * Send the message, or queue it if sending is async and the queue isn't full.
+     *
+     * @param message the message
+     * @throws MessagingException for any mail error
+     */
+    public void send(Message message) throws MessagingException {
+        if (queue != null && closed == false && queue.offer(message)) {
+            // workers might have just stopped
+            if (closed == false || queue.remove(message) == false) {
+                return;
+            }
+        }
+        PooledTransport transport = borrow();
+        try {
+            transport = send(transport, message);
+        } finally {
+            release(transport);
+        }
+    }
+
+    /**
+     * Get the number of queued messages the workers failed to send.
+     *
+     * @return the failed count
+     */
+    public long getAsyncFailures() {
+        return asyncFailures.get();
+    }
+
+    private void asyncFailed(int count, MessagingException e) {
+        log.log(Level.WARNING, "Cannot send " + count + " queued message(s).", e);
+        asyncFailures.addAndGet(count);
+    }
+
+    private PooledTransport send(PooledTransport transport, Message message) throws MessagingException {
+        try {
+            transport.send(message);
+            return transport;
+        } catch (MessagingException e) {
+            if (transport.isRetryable(e) == false) {
+                throw e;
+            }
+            // reconnect and retry once
+            transport.close();
+            PooledTransport fresh = new PooledTransport(connect());
+            try {
+                fresh.send(message);
+                return fresh;
+            } catch (MessagingException me) {
+                fresh.close();
+                throw me;
+            }
+        }
+    }
+
+    private PooledTransport borrow() throws MessagingException {
+        try {
+            if (permits.tryAcquire(BORROW_TIMEOUT, TimeUnit.MILLISECONDS) == false) {
+                throw new MessagingException("No mail transport available in " + BORROW_TIMEOUT + "ms.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MessagingException("Interrupted waiting for mail transport.", e);
+        }
+        try {
+            PooledTransport transport;
+            while ((transport = poll()) != null) {
+                if (transport.isUsable()) {
+                    return transport;
+                }
+                transport.close();
+            }
+            return new PooledTransport(connect());
+        } catch (MessagingException e) {
+            permits.release();
+            throw e;
+        } catch (RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    private synchronized PooledTransport poll() {
+        return idle.pollFirst(); // most recently used first
+    }
+
+    private void release(PooledTransport transport) {
+        try {
+            if (closed == false && transport.isConnected()) {
+                transport.lastUsed = System.currentTimeMillis();
+                synchronized (this) {
+                    idle.addFirst(transport);
+                }
+            } else {
+                transport.close();
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    private Transport connect() throws MessagingException {
+        String protocol = session.getProperty("mail.transport.protocol");
+        if (protocol == null) {
+            protocol = "smtp";
+        }
+        Transport transport;
+        if ("smtp".equals(protocol) || "smtps".equals(protocol)) {
+            transport = new TrackingSMTPTransport(session, protocol);
+        } else {
+            transport = session.getTransport(protocol);
+        }
+        transport.connect();
+        return transport;
+    }
+
+    /**
+     * Stop the workers, once they have sent the queued messages, and close idle transports.
+     */
+    public void close() {
+        closed = true;
+        for (Thread worker : workers) {
+            try {
+                worker.join(BORROW_TIMEOUT);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        List<PooledTransport> transports;
+        synchronized (this) {
+            transports = new ArrayList<PooledTransport>(idle);
+            idle.clear();
+        }
+        for (PooledTransport transport : transports) {
+            transport.close();
+        }
+    }
+
+    /**
+     * Records whether the message data was sent.
+     */
+    private static class TrackingSMTPTransport extends SMTPTransport {
+        private boolean dataStarted;
+
+        private TrackingSMTPTransport(Session session, String protocol) {
+            super(session, new URLName(protocol, null, -1, null, null, null), protocol, "smtps".equals(protocol));
+        }
+
+        @Override
+        public synchronized void sendMessage(Message message, Address[] addresses) throws MessagingException {
+            dataStarted = false;
+            super.sendMessage(message, addresses);
+        }
+
+        @Override
+        protected synchronized OutputStream data() throws MessagingException {
+            dataStarted = true;
+            return super.data();
+        }
+
+        private synchronized boolean isDataStarted() {
+            return dataStarted;
+        }
+    }
+
+    private static class PooledTransport {
+        private final Transport transport;
+        private volatile long lastUsed = System.currentTimeMillis();
+
+        private PooledTransport(Transport transport) {
+            this.transport = transport;
+        }
+
+        private void send(Message message) throws MessagingException {
+            transport.sendMessage(message, message.getAllRecipients());
+        }
+
+        private boolean isConnected() {
+            return transport.isConnected();
+        }
+
+        private boolean isUsable() {
+            long idleTime = System.currentTimeMillis() - lastUsed;
+            if (idleTime > IDLE_TIMEOUT) {
+                return false;
+            }
+            // SMTP validates the connection with NOOP
+            return idleTime < VALIDATE_AFTER || transport.isConnected();
+        }
+
+        /**
+         * Can the message be sent again on a fresh connection without risking a duplicate.
+         * Only if the connection broke before the message data was sent.
+         */
+        private boolean isRetryable(MessagingException e) {
+            if (transport instanceof TrackingSMTPTransport == false || ((TrackingSMTPTransport) transport).isDataStarted()) {
+                return false;
+            }
+            // a rejected sender or recipient leaves the connection open
+            return hasIOException(e) || transport.isConnected() == false;
+        }
+
+        private static boolean hasIOException(Throwable t) {
+            for (; t != null; t = t.getCause()) {
+                if (t instanceof IOException) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void close() {
+            try {
+                transport.close();
+            } catch (MessagingException ignored) {
+            }
+        }
+    }
+
+    private class Worker implements Runnable {
+        public void run() {
+            final List<Message> batch = new ArrayList<Message>(BATCH_SIZE);
+            while (true) {
+                try {
+                    if (closed) {
+                        // send what's left, then stop
+                        if (queue.drainTo(batch, BATCH_SIZE) == 0) {
+                            return;
+                        }
+                    } else {
+                        // not interrupted on close, so a batch in flight doesn't fail
+                        Message message = queue.poll(POLL_TIMEOUT, TimeUnit.MILLISECONDS);
+                        if (message == null) {
+                            continue;
+                        }
+                        batch.add(message);
+                        queue.drainTo(batch, BATCH_SIZE - 1);
+                    }
+                    sendBatch(batch);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } finally {
+                    batch.clear();
+                }
+            }
+        }
+
+        private void sendBatch(List<Message> batch) {
+            PooledTransport transport;
+            try {
+                transport = borrow();
+            } catch (MessagingException e) {
+                asyncFailed(batch.size(), e);
+                return;
+            }
+            try {
+                for (int i = 0; i < batch.size(); i++) {
+                    try {
+                        transport = TransportPool.this.send(transport, batch.get(i));
+                    } catch (MessagingException e) {
+                        asyncFailed(1, e);
+                        if (transport.isConnected() == false) {
+                            release(transport);
+                            transport = null;
+                            try {
+                                transport = borrow();
+                            } catch (MessagingException me) {
+                                asyncFailed(batch.size() - i - 1, me);
+                                return;
+                            }
+                        }
+                    }
+                }
+            } finally {
+                if (transport != null) {
+                    release(transport);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.test.capedwarf.mail.test;
+
+import java.util.Properties;
+
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+
+import com.icegreen.greenmail.util.GreenMail;
+import com.icegreen.greenmail.util.ServerSetupTest;
+import org.jboss.capedwarf.mail.TransportPool;
+import org.jboss.test.capedwarf.common.support.JBoss;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+@Category(JBoss.class)
+public class TransportPoolTest {
+
+    private GreenMail greenMail;
+    private Session session;
+    private TransportPool pool;
+
+    @Before
+    public void setUp() throws Exception {
+        greenMail = new GreenMail(ServerSetupTest.SMTP);
+        greenMail.start();
+
+        Properties properties = new Properties();
+        properties.setProperty("mail.transport.protocol", "smtp");
+        properties.setProperty("mail.smtp.host", "localhost");
+        properties.setProperty("mail.smtp.port", String.valueOf(ServerSetupTest.SMTP.getPort()));
+        session = Session.getInstance(properties);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (pool != null) {
+            pool.close();
+        }
+        greenMail.stop();
+    }
+
+    @Test
+    public void sendsAllMessages() throws Exception {
+        pool = new TransportPool(session, false);
+        for (int i = 0; i < 10; i++) {
+            pool.send(createMessage(i));
+        }
+        assertTrue(greenMail.waitForIncomingEmail(5000, 10));
+        assertEquals(10, greenMail.getReceivedMessages().length);
+    }
+
+    @Test
+    public void reconnectsAfterServerRestart() throws Exception {
+        pool = new TransportPool(session, false);
+        pool.send(createMessage(0));
+        assertTrue(greenMail.waitForIncomingEmail(5000, 1));
+
+        // the pooled connection is now broken
+        greenMail.stop();
+        greenMail = new GreenMail(ServerSetupTest.SMTP);
+        greenMail.start();
+
+        pool.send(createMessage(1));
+        assertTrue(greenMail.waitForIncomingEmail(5000, 1));
+        assertEquals(1, greenMail.getReceivedMessages().length);
+    }
+
+    @Test
+    public void closeSendsQueuedMessagesAndStopsWorkers() throws Exception {
+        pool = new TransportPool(session, true);
+        for (int i = 0; i < 20; i++) {
+            pool.send(createMessage(i));
+        }
+        pool.close();
+
+        assertEquals(20, greenMail.getReceivedMessages().length);
+        assertFalse("Mail workers still running", hasMailWorkers());
+    }
+
+    @Test
+    public void asyncFailureDoesNotAffectNextSend() throws Exception {
+        greenMail.stop();
+
+        pool = new TransportPool(session, true);
+        pool.send(createMessage(0));
+        pool.close(); // waits for the worker to fail
+        assertEquals(1, pool.getAsyncFailures());
+
+        greenMail = new GreenMail(ServerSetupTest.SMTP);
+        greenMail.start();
+
+        // sent synchronously, as the pool is closed
+        pool.send(createMessage(1));
+        assertEquals(1, greenMail.getReceivedMessages().length);
+    }
+
+    private Message createMessage(int i) throws MessagingException {
+        MimeMessage message = new MimeMessage(session);
+        message.setFrom(new InternetAddress("sender@example.com"));
+        message.setRecipient(Message.RecipientType.TO, new InternetAddress("recipient@example.com"));
+        message.setSubject("Message " + i);
+        message.setText("Body " + i);
+        return message;
+    }
+
+    private static boolean hasMailWorkers() {
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().startsWith("CapeDwarf-Mail-") && thread.isAlive()) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
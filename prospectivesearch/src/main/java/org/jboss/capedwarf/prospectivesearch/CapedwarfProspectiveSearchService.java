@@ -22,10 +22,13 @@
 
 package org.jboss.capedwarf.prospectivesearch;
 
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.Random;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -39,38 +42,38 @@ import com.google.appengine.api.prospectivesearch.ProspectiveSearchService;
 import com.google.appengine.api.prospectivesearch.QuerySyntaxException;
 import com.google.appengine.api.prospectivesearch.Subscription;
 import com.google.appengine.api.taskqueue.Queue;
+import com.google.appengine.api.taskqueue.QueueConstants;
 import com.google.appengine.api.taskqueue.QueueFactory;
 import com.google.appengine.api.taskqueue.TaskOptions;
 import com.google.appengine.repackaged.com.google.common.util.Base64;
 import com.google.appengine.repackaged.com.google.common.util.Base64DecoderException;
 import org.apache.lucene.queryParser.ParseException;
 import org.apache.lucene.search.Query;
-import org.hibernate.search.query.dsl.QueryBuilder;
 import org.infinispan.Cache;
-import org.infinispan.distexec.mapreduce.MapReduceTask;
-import org.infinispan.query.CacheQuery;
-import org.infinispan.query.Search;
-import org.infinispan.query.SearchManager;
 import org.jboss.capedwarf.common.app.Application;
 import org.jboss.capedwarf.common.infinispan.CacheName;
 import org.jboss.capedwarf.common.infinispan.InfinispanUtils;
-import org.jboss.capedwarf.search.QueryConverter;
+import org.jboss.capedwarf.common.io.IOUtils;
 
 /**
  * @author <a href="mailto:mluksa@redhat.com">Marko Luksa</a>
  * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
  */
 public class CapedwarfProspectiveSearchService implements ProspectiveSearchService {
+    private static final String DOCUMENT_CONTENT_TYPE = "application/octet-stream";
+    // opt-in, result handlers must read the document with getDocument(request), not the "document" parameter
+    private static final boolean RAW_DOCUMENT = Boolean.getBoolean("jboss.capedwarf.prospectivesearch.rawDocument");
+    // TaskOptionsHelper.QUERY_PARAMS_HEADER; the task queue passes the url query string as parameters
+    private static final String QUERY_PARAMS_HEADER = "X-CapeDwarf-Query-Params";
 
     private final Logger log = Logger.getLogger(getClass().getName());
+    private final Random random = new Random();
 
     private final Cache<TopicAndSubId, SubscriptionHolder> cache;
-    private SearchManager searchManager;
 
     public CapedwarfProspectiveSearchService() {
         ClassLoader classLoader = Application.getAppClassloader();
         this.cache = createStore().getAdvancedCache().with(classLoader);
-        this.searchManager = Search.getSearchManager(cache);
     }
 
     private Cache<TopicAndSubId, SubscriptionHolder> createStore() {
@@ -83,10 +86,13 @@ public class CapedwarfProspectiveSearchService implements ProspectiveSearchServi
         }
 
         try {
-            Query luceneQuery = parseQuery(query);
+            Query luceneQuery = CompiledQueryCache.compile(query);
             TopicAndSubId key = new TopicAndSubId(topic, subId);
             long expirationTimeSec = System.currentTimeMillis()/1000 + (leaseDurationSeconds == 0 ? 0xffffffffL : leaseDurationSeconds);
-            SubscriptionHolder value = new SubscriptionHolder(topic, subId, query, luceneQuery, expirationTimeSec);
+            long version = random.nextLong();
+            SubscriptionHolder value = new SubscriptionHolder(topic, subId, query, version, expirationTimeSec);
+            // the local index needn't compile it again
+            CompiledQueryCache.getInstance(Application.getAppId()).put(key, version, luceneQuery);
 
             if (leaseDurationSeconds == 0) {
                 cache.put(key, value);
@@ -99,26 +105,16 @@ public class CapedwarfProspectiveSearchService implements ProspectiveSearchServi
         }
     }
 
-    private Query parseQuery(String query) throws ParseException {
-        return new QueryConverter("all").convert(query);
-    }
-
     public void unsubscribe(String topic, String subId) {
-        SubscriptionHolder holder = cache.remove(new TopicAndSubId(topic, subId));
+        TopicAndSubId key = new TopicAndSubId(topic, subId);
+        SubscriptionHolder holder = cache.remove(key);
+        CompiledQueryCache.getInstance(Application.getAppId()).invalidate(key);
 
         if (holder == null) {
             throw new IllegalArgumentException("topic '" + topic + "' has no subscription with subId " + subId);
         }
     }
 
-    private CacheQuery getCacheQuery(Query luceneQuery) {
-        return searchManager.getQuery(luceneQuery, SubscriptionHolder.class);
-    }
-
-    private QueryBuilder newQueryBuilder() {
-        return searchManager.buildQueryBuilderForClass(SubscriptionHolder.class).get();
-    }
-
     public void match(Entity entity, String topic) {
         match(entity, topic, "");
     }
@@ -134,35 +130,83 @@ public class CapedwarfProspectiveSearchService implements ProspectiveSearchServi
 
     private void addTasks(Entity entity, List<Subscription> subscriptions, String topic, String resultKey, String resultRelativeUrl,
                           String resultTaskQueueName, int resultBatchSize, boolean resultReturnDocument) {
+        if (subscriptions.isEmpty()) {
+            return;
+        }
+
         Queue queue = QueueFactory.getQueue(resultTaskQueueName);
+        // serialize the document once, not per batch
+        byte[] document = resultReturnDocument ? EntityTranslator.convertToPb(entity).toByteArray() : null;
+        String encodedDocument = null;
 
+        List<TaskOptions> tasks = new ArrayList<TaskOptions>();
         for (int offset = 0; offset < subscriptions.size(); offset+=resultBatchSize) {
             List<Subscription> batch = subscriptions.subList(offset, Math.min(offset + resultBatchSize, subscriptions.size()));
-            TaskOptions taskOptions = TaskOptions.Builder.withUrl(resultRelativeUrl)
-                .param("results_offset", String.valueOf(offset))
-                .param("results_count", String.valueOf(batch.size()))
-                .param("topic", topic)
-                .param("key", resultKey);
-
-            for (Subscription subscription : batch) {
-                taskOptions.param("id", subscription.getId());
+
+            TaskOptions taskOptions = null;
+            if (document != null && RAW_DOCUMENT) {
+                // raw document as the body, parameters in the query string -- if they fit the url
+                String url = resultRelativeUrl + (resultRelativeUrl.indexOf('?') < 0 ? '?' : '&') + toQuery(offset, batch, topic, resultKey);
+                if (url.length() <= QueueConstants.maxUrlLength()) {
+                    taskOptions = TaskOptions.Builder.withUrl(url).payload(document, DOCUMENT_CONTENT_TYPE).header(QUERY_PARAMS_HEADER, "true");
+                }
             }
 
-            if (resultReturnDocument) {
-                taskOptions.param("document", encodeDocument(entity));
+            if (taskOptions == null) {
+                taskOptions = TaskOptions.Builder.withUrl(resultRelativeUrl)
+                    .param("results_offset", String.valueOf(offset))
+                    .param("results_count", String.valueOf(batch.size()))
+                    .param("topic", topic)
+                    .param("key", resultKey);
+
+                for (Subscription subscription : batch) {
+                    taskOptions.param("id", subscription.getId());
+                }
+
+                if (document != null) {
+                    if (encodedDocument == null) {
+                        encodedDocument = Base64.encodeWebSafe(document, false);
+                    }
+                    taskOptions.param("document", encodedDocument);
+                }
             }
 
-            queue.add(taskOptions);
+            tasks.add(taskOptions);
+            if (tasks.size() == QueueConstants.maxTasksPerAdd()) {
+                queue.add(tasks);
+                tasks = new ArrayList<TaskOptions>();
+            }
+        }
+        if (tasks.isEmpty() == false) {
+            queue.add(tasks);
         }
     }
 
-    private List<Subscription> findMatching(final Entity entity, final String topic) {
-        MatchMapper mapper = new MatchMapper(topic, entity);
-        MatchReducer reducer = new MatchReducer();
-        MatchCollator collator = new MatchCollator();
+    private static String toQuery(int offset, List<Subscription> batch, String topic, String resultKey) {
+        StringBuilder builder = new StringBuilder();
+        appendParam(builder, "results_offset", String.valueOf(offset));
+        appendParam(builder, "results_count", String.valueOf(batch.size()));
+        appendParam(builder, "topic", topic);
+        appendParam(builder, "key", resultKey);
+        for (Subscription subscription : batch) {
+            appendParam(builder, "id", subscription.getId());
+        }
+        return builder.toString();
+    }
+
+    private static void appendParam(StringBuilder builder, String name, String value) {
+        if (builder.length() > 0) {
+            builder.append('&');
+        }
+        try {
+            builder.append(name).append('=').append(URLEncoder.encode(value, "UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
 
-        MapReduceTask<TopicAndSubId, SubscriptionHolder, String, List<SerializableSubscription>> task = new MapReduceTask<TopicAndSubId, SubscriptionHolder, String, List<SerializableSubscription>>(cache);
-        return task.mappedWith(mapper).reducedWith(reducer).execute(collator);
+    private List<Subscription> findMatching(final Entity entity, final String topic) {
+        return MatchTask.match(Application.getAppId(), topic, entity);
     }
 
     public List<Subscription> listSubscriptions(String topic) {
@@ -170,15 +214,7 @@ public class CapedwarfProspectiveSearchService implements ProspectiveSearchServi
     }
 
     public List<Subscription> listSubscriptions(String topic, String subIdStart, int maxResults, long expiresBefore) {
-        Query luceneQuery = newQueryBuilder().keyword().onField("topic").matching(topic).createQuery();
-        CacheQuery query = getCacheQuery(luceneQuery);
-        List<Object> results = query.list();
-        List<Subscription> list = new ArrayList<Subscription>(results.size());
-        for (Object o : results) {
-            SubscriptionHolder holder = (SubscriptionHolder) o;
-            list.add(holder.toSubscription());
-        }
-        return list;
+        return ListSubscriptionsTask.list(Application.getAppId(), topic, subIdStart == null ? "" : subIdStart, maxResults, expiresBefore);
     }
 
     public Subscription getSubscription(String topic, String subId) {
@@ -191,23 +227,27 @@ public class CapedwarfProspectiveSearchService implements ProspectiveSearchServi
     }
 
     public List<String> listTopics(String topicStart, long maxResults) {
-        TopicsMapper mapper = new TopicsMapper();
-        TopicsReducer reducer = new TopicsReducer();
-        TopicsCollator collator = new TopicsCollator();
-
-        MapReduceTask<TopicAndSubId, SubscriptionHolder, String, Set<String>> task = new MapReduceTask<TopicAndSubId, SubscriptionHolder, String, Set<String>>(cache);
-        return task.mappedWith(mapper).reducedWith(reducer).execute(collator);
+        return ListTopicsTask.list(Application.getAppId(), topicStart == null ? "" : topicStart, maxResults);
     }
 
     public Entity getDocument(HttpServletRequest request) {
-        return decodeDocument(request.getParameter("document"));
-    }
-
-    private String encodeDocument(Entity document) {
-        return Base64.encodeWebSafe(EntityTranslator.convertToPb(document).toByteArray(), false);
+        String contentType = request.getContentType();
+        if (contentType == null || contentType.startsWith(DOCUMENT_CONTENT_TYPE) == false) {
+            return decodeDocument(request.getParameter("document"));
+        }
+        try {
+            byte[] document = IOUtils.toBytes(request.getInputStream(), true);
+            return (document.length > 0) ? EntityTranslator.createFromPbBytes(document) : null;
+        } catch (IOException e) {
+            log.log(Level.WARNING, "Could not read document.", e);
+            return null;
+        }
     }
 
     private Entity decodeDocument(String encodedDocument) {
+        if (encodedDocument == null) {
+            return null;
+        }
         try {
             return EntityTranslator.createFromPbBytes(Base64.decodeWebSafe(encodedDocument));
         } catch (Base64DecoderException e) {
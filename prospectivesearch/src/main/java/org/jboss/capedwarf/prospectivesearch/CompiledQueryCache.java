@@ -0,0 +1,106 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.capedwarf.prospectivesearch;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.lucene.queryParser.ParseException;
+import org.apache.lucene.search.Query;
+import org.jboss.capedwarf.common.shared.AppComponents;
+import org.jboss.capedwarf.search.QueryConverter;
+
+/**
+ * Node-local cache of compiled subscription queries.
+ *
+ * Only the query string travels with the subscription; its Lucene query is compiled
+ * once per node, and cached under the subscription's version, see SubscriptionHolder.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+final class CompiledQueryCache {
+    private static final int MAX_ENTRIES = Integer.getInteger("jboss.capedwarf.prospectivesearch.compiledQueries", 10000);
+
+    private final Map<TopicAndSubId, CompiledQuery> queries = new LinkedHashMap<TopicAndSubId, CompiledQuery>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        protected boolean removeEldestEntry(Map.Entry<TopicAndSubId, CompiledQuery> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    private static final AppComponents.Factory<CompiledQueryCache> FACTORY = new AppComponents.Factory<CompiledQueryCache>() {
+        protected CompiledQueryCache create() {
+            return new CompiledQueryCache();
+        }
+    };
+
+    static CompiledQueryCache getInstance(String appId) {
+        return AppComponents.getOrCreate(appId, CompiledQueryCache.class, FACTORY);
+    }
+
+    static Query compile(String query) throws ParseException {
+        return new QueryConverter("all").convert(query);
+    }
+
+    /**
+     * Get the holder's compiled query, compiling it if it's not cached.
+     *
+     * @param holder the subscription holder
+     * @return compiled query
+     */
+    Query get(SubscriptionHolder holder) {
+        final TopicAndSubId key = new TopicAndSubId(holder.getTopic(), holder.getId());
+        synchronized (this) {
+            CompiledQuery compiled = queries.get(key);
+            if (compiled != null && compiled.version == holder.getVersion()) {
+                return compiled.query;
+            }
+        }
+        try {
+            Query query = compile(holder.getQuery());
+            put(key, holder.getVersion(), query);
+            return query;
+        } catch (ParseException e) {
+            throw new IllegalStateException("Cannot compile subscription query: " + holder.getQuery(), e); // was checked on subscribe
+        }
+    }
+
+    synchronized void put(TopicAndSubId key, long version, Query query) {
+        queries.put(key, new CompiledQuery(version, query));
+    }
+
+    synchronized void invalidate(TopicAndSubId key) {
+        queries.remove(key);
+    }
+
+    private static class CompiledQuery {
+        private final long version;
+        private final Query query;
+
+        private CompiledQuery(long version, Query query) {
+            this.version = version;
+            this.query = query;
+        }
+    }
+}
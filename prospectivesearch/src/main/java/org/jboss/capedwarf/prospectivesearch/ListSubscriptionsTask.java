@@ -0,0 +1,86 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.capedwarf.prospectivesearch;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+import com.google.appengine.api.prospectivesearch.Subscription;
+import org.jboss.capedwarf.common.infinispan.InfinispanUtils;
+import org.jboss.capedwarf.common.util.Util;
+
+/**
+ * List topic's subscriptions from every node's subscription index.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+class ListSubscriptionsTask implements Callable<List<SerializableSubscription>>, Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final String appId;
+    private final String topic;
+    private final String subIdStart;
+    private final int maxResults;
+    private final long expiresBefore;
+
+    ListSubscriptionsTask(String appId, String topic, String subIdStart, int maxResults, long expiresBefore) {
+        this.appId = appId;
+        this.topic = topic;
+        this.subIdStart = subIdStart;
+        this.maxResults = maxResults;
+        this.expiresBefore = expiresBefore;
+    }
+
+    static List<Subscription> list(String appId, String topic, String subIdStart, int maxResults, long expiresBefore) {
+        List<Future<List<SerializableSubscription>>> results = InfinispanUtils.everywhere(appId, new ListSubscriptionsTask(appId, topic, subIdStart, maxResults, expiresBefore));
+        // sorted by id, backup owners list the same subscriptions
+        Map<String, Subscription> subscriptions = new TreeMap<String, Subscription>();
+        for (Future<List<SerializableSubscription>> f : results) {
+            for (SerializableSubscription ss : Util.quietGet(f)) {
+                subscriptions.put(ss.getSubscription().getId(), ss.getSubscription());
+            }
+        }
+        List<Subscription> list = new ArrayList<Subscription>();
+        for (Subscription subscription : subscriptions.values()) {
+            if (list.size() >= maxResults) {
+                break;
+            }
+            list.add(subscription);
+        }
+        return list;
+    }
+
+    public List<SerializableSubscription> call() throws Exception {
+        List<SubscriptionHolder> holders = SubscriptionIndex.getInstance(appId).listSubscriptions(topic, subIdStart, maxResults, expiresBefore);
+        List<SerializableSubscription> subscriptions = new ArrayList<SerializableSubscription>(holders.size());
+        for (SubscriptionHolder holder : holders) {
+            subscriptions.add(new SerializableSubscription(holder.toSubscription()));
+        }
+        return subscriptions;
+    }
+}
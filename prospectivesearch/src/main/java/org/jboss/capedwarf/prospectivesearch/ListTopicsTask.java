@@ -0,0 +1,72 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.capedwarf.prospectivesearch;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+import org.jboss.capedwarf.common.infinispan.InfinispanUtils;
+import org.jboss.capedwarf.common.util.Util;
+
+/**
+ * List topics from every node's subscription index.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+class ListTopicsTask implements Callable<List<String>>, Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final String appId;
+    private final String topicStart;
+    private final long maxResults;
+
+    ListTopicsTask(String appId, String topicStart, long maxResults) {
+        this.appId = appId;
+        this.topicStart = topicStart;
+        this.maxResults = maxResults;
+    }
+
+    static List<String> list(String appId, String topicStart, long maxResults) {
+        List<Future<List<String>>> results = InfinispanUtils.everywhere(appId, new ListTopicsTask(appId, topicStart, maxResults));
+        TreeSet<String> topics = new TreeSet<String>();
+        for (Future<List<String>> f : results) {
+            topics.addAll(Util.quietGet(f));
+        }
+        List<String> list = new ArrayList<String>();
+        for (String topic : topics) {
+            if (list.size() >= maxResults) {
+                break;
+            }
+            list.add(topic);
+        }
+        return list;
+    }
+
+    public List<String> call() throws Exception {
+        return SubscriptionIndex.getInstance(appId).listTopics(topicStart, maxResults);
+    }
+}
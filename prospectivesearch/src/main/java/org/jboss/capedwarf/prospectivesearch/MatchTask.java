@@ -0,0 +1,80 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.capedwarf.prospectivesearch;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.prospectivesearch.Subscription;
+import org.jboss.capedwarf.common.infinispan.InfinispanUtils;
+import org.jboss.capedwarf.common.util.Util;
+
+/**
+ * Match the document against every node's subscription index.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+class MatchTask implements Callable<List<SerializableSubscription>>, Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final String appId;
+    private final String topic;
+    private final HashMap<String, String> document;
+
+    MatchTask(String appId, String topic, Entity entity) {
+        this.appId = appId;
+        this.topic = topic;
+        this.document = new HashMap<String, String>();
+        for (Map.Entry<String, Object> entry : entity.getProperties().entrySet()) {
+            document.put(entry.getKey(), String.valueOf(entry.getValue()));
+        }
+    }
+
+    static List<Subscription> match(String appId, String topic, Entity entity) {
+        List<Future<List<SerializableSubscription>>> results = InfinispanUtils.everywhere(appId, new MatchTask(appId, topic, entity));
+        // backup owners match the same subscriptions
+        Map<String, Subscription> matches = new LinkedHashMap<String, Subscription>();
+        for (Future<List<SerializableSubscription>> f : results) {
+            for (SerializableSubscription ss : Util.quietGet(f)) {
+                matches.put(ss.getSubscription().getId(), ss.getSubscription());
+            }
+        }
+        return new ArrayList<Subscription>(matches.values());
+    }
+
+    public List<SerializableSubscription> call() throws Exception {
+        List<SubscriptionHolder> holders = SubscriptionIndex.getInstance(appId).match(topic, document);
+        List<SerializableSubscription> subscriptions = new ArrayList<SerializableSubscription>(holders.size());
+        for (SubscriptionHolder holder : holders) {
+            subscriptions.add(new SerializableSubscription(holder.toSubscription()));
+        }
+        return subscriptions;
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.capedwarf.prospectivesearch;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.PhraseQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+
+/**
+ * Extracts terms, at least one of which a document must contain to match the query.
+ *
+ * The extraction is conservative; queries it cannot reason about (ranges, prefixes, ...)
+ * have no required terms, and must always be evaluated.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public final class QueryTerms {
+    private QueryTerms() {
+    }
+
+    /**
+     * Extract required terms.
+     *
+     * @param query the query
+     * @return terms, or null if the query must always be evaluated
+     */
+    public static Set<Term> extract(Query query) {
+        if (query instanceof TermQuery) {
+            return Collections.singleton(((TermQuery) query).getTerm());
+        } else if (query instanceof PhraseQuery) {
+            Term[] terms = ((PhraseQuery) query).getTerms();
+            return (terms.length > 0) ? Collections.singleton(terms[0]) : null;
+        } else if (query instanceof BooleanQuery) {
+            return extract((BooleanQuery) query);
+        } else {
+            return null;
+        }
+    }
+
+    private static Set<Term> extract(BooleanQuery query) {
+        Set<Term> required = null;
+        boolean hasRequired = false;
+        Set<Term> optional = new HashSet<Term>();
+        boolean allOptionalExtracted = true;
+        boolean hasOptional = false;
+
+        for (BooleanClause clause : query.getClauses()) {
+            if (clause.isRequired()) {
+                hasRequired = true;
+                Set<Term> terms = extract(clause.getQuery());
+                // any required clause will do, prefer the most selective one
+                if (terms != null && (required == null || terms.size() < required.size())) {
+                    required = terms;
+                }
+            } else if (clause.isProhibited() == false) {
+                hasOptional = true;
+                Set<Term> terms = extract(clause.getQuery());
+                if (terms == null) {
+                    allOptionalExtracted = false;
+                } else {
+                    optional.addAll(terms);
+                }
+            }
+        }
+
+        if (hasRequired) {
+            return required;
+        } else if (hasOptional && allOptionalExtracted) {
+            return optional;
+        } else {
+            return null;
+        }
+    }
+}
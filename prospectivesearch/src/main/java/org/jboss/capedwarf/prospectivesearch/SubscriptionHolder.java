@@ -23,7 +23,6 @@
 package org.jboss.capedwarf.prospectivesearch;
 
 import com.google.appengine.api.prospectivesearch.Subscription;
-import org.apache.lucene.search.Query;
 import org.hibernate.search.annotations.Analyze;
 import org.hibernate.search.annotations.Field;
 import org.hibernate.search.annotations.Indexed;
@@ -48,18 +47,18 @@ public class SubscriptionHolder implements Serializable {
 
     private String query;
 
-    private Query luceneQuery;
+    private long version;
 
     private long expirationTimeSec;
 
     protected SubscriptionHolder() {
     }
 
-    protected SubscriptionHolder(String topic, String id, String query, Query luceneQuery, long expirationTimeSec) {
+    protected SubscriptionHolder(String topic, String id, String query, long version, long expirationTimeSec) {
         this.topic = topic;
         this.id = id;
         this.query = query;
-        this.luceneQuery = luceneQuery;
+        this.version = version;
         this.expirationTimeSec = expirationTimeSec;
     }
 
@@ -79,8 +78,14 @@ public class SubscriptionHolder implements Serializable {
         return query;
     }
 
-    public Query getLuceneQuery() {
-        return luceneQuery;
+    /**
+     * Get the version, which changes on every (re-)subscribe.
+     * The compiled query is cached per node under this version, see CompiledQueryCache.
+     *
+     * @return the version
+     */
+    public long getVersion() {
+        return version;
     }
 
     public long getExpirationTimeSec() {
@@ -0,0 +1,362 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.capedwarf.prospectivesearch;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.miscellaneous.PatternAnalyzer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.memory.MemoryIndex;
+import org.apache.lucene.search.Query;
+import org.infinispan.AdvancedCache;
+import org.infinispan.Cache;
+import org.infinispan.notifications.Listener;
+import org.infinispan.notifications.cachelistener.annotation.CacheEntryInvalidated;
+import org.infinispan.notifications.cachelistener.annotation.CacheEntryModified;
+import org.infinispan.notifications.cachelistener.annotation.CacheEntryRemoved;
+import org.infinispan.notifications.cachelistener.event.CacheEntryInvalidatedEvent;
+import org.infinispan.notifications.cachelistener.event.CacheEntryModifiedEvent;
+import org.infinispan.notifications.cachelistener.event.CacheEntryRemovedEvent;
+import org.jboss.capedwarf.common.infinispan.CacheName;
+import org.jboss.capedwarf.common.infinispan.InfinispanUtils;
+import org.jboss.capedwarf.common.shared.AppComponents;
+
+/**
+ * Node-local index of the subscriptions stored on this node.
+ *
+ * Subscriptions are partitioned by topic, and indexed by their required terms (see QueryTerms),
+ * so a document is only evaluated against the queries it could possibly match.
+ * The index holds the subscriptions' compiled queries, and is kept
+ * in sync with the local data through a cache listener.
+ *
+ * Topics and each topic's subscriptions are kept sorted, so listing is a range scan.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+final class SubscriptionIndex {
+    private static final Analyzer ANALYZER = PatternAnalyzer.DEFAULT_ANALYZER;
+
+    private final AdvancedCache<TopicAndSubId, SubscriptionHolder> cache;
+    private final CompiledQueryCache queries;
+    private final NavigableMap<String, TopicIndex> topics = new TreeMap<String, TopicIndex>();
+
+    private SubscriptionIndex(Cache<TopicAndSubId, SubscriptionHolder> cache, CompiledQueryCache queries) {
+        // tasks run without app's context, holders only need our classes
+        this.cache = cache.getAdvancedCache().with(SubscriptionHolder.class.getClassLoader());
+        this.queries = queries;
+    }
+
+    static SubscriptionIndex getInstance(final String appId) {
+        return AppComponents.getOrCreate(appId, SubscriptionIndex.class, new AppComponents.Factory<SubscriptionIndex>() {
+            protected SubscriptionIndex create() {
+                Cache<TopicAndSubId, SubscriptionHolder> cache = InfinispanUtils.getCache(appId, CacheName.PROSPECTIVE_SEARCH);
+                SubscriptionIndex index = new SubscriptionIndex(cache, CompiledQueryCache.getInstance(appId));
+                index.start();
+                return index;
+            }
+        });
+    }
+
+    private void start() {
+        // listen first, so nothing put while we're loading is missed
+        cache.addListener(new IndexListener());
+        for (Map.Entry<TopicAndSubId, SubscriptionHolder> entry : cache.entrySet()) {
+            add(entry.getKey(), entry.getValue());
+        }
+    }
+
+    void add(TopicAndSubId key, SubscriptionHolder holder) {
+        final Query query = queries.get(holder); // compile outside the lock
+        synchronized (this) {
+            unindex(key);
+
+            TopicIndex index = topics.get(key.getTopic());
+            if (index == null) {
+                index = new TopicIndex();
+                topics.put(key.getTopic(), index);
+            }
+            index.add(key.getSubId(), holder, query);
+        }
+    }
+
+    synchronized void remove(TopicAndSubId key) {
+        unindex(key);
+        queries.invalidate(key);
+    }
+
+    private void unindex(TopicAndSubId key) {
+        TopicIndex index = topics.get(key.getTopic());
+        if (index != null) {
+            index.remove(key.getSubId());
+            if (index.isEmpty()) {
+                topics.remove(key.getTopic());
+            }
+        }
+    }
+
+    /**
+     * Find the topic's subscriptions matching the document.
+     *
+     * @param topic the topic
+     * @param document the document's fields
+     * @return matching subscriptions
+     */
+    List<SubscriptionHolder> match(String topic, Map<String, String> document) {
+        final Set<Term> terms = new HashSet<Term>();
+        final MemoryIndex memoryIndex = new MemoryIndex();
+        for (Map.Entry<String, String> entry : document.entrySet()) {
+            memoryIndex.addField(entry.getKey(), entry.getValue(), ANALYZER);
+            addTerms(terms, entry.getKey(), entry.getValue());
+        }
+
+        final List<Candidate> candidates;
+        synchronized (this) {
+            TopicIndex index = topics.get(topic);
+            if (index == null) {
+                return new ArrayList<SubscriptionHolder>();
+            }
+            candidates = index.getCandidates(terms);
+        }
+
+        final long now = System.currentTimeMillis() / 1000;
+        final List<SubscriptionHolder> matches = new ArrayList<SubscriptionHolder>();
+        for (Candidate candidate : candidates) {
+            SubscriptionHolder holder = candidate.holder;
+            if (holder.getExpirationTimeSec() < now) {
+                continue;
+            }
+            if (memoryIndex.search(candidate.query) > 0.0f) {
+                TopicAndSubId key = new TopicAndSubId(topic, holder.getId());
+                if (isLive(key)) {
+                    matches.add(holder);
+                } else {
+                    remove(key); // expired or moved away
+                }
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * List topics, in order.
+     *
+     * @param topicStart the first topic, inclusive
+     * @param maxResults max number of topics
+     * @return topics
+     */
+    synchronized List<String> listTopics(String topicStart, long maxResults) {
+        final List<String> result = new ArrayList<String>();
+        final List<TopicAndSubId> stale = new ArrayList<TopicAndSubId>();
+        for (Map.Entry<String, TopicIndex> entry : topics.tailMap(topicStart, true).entrySet()) {
+            if (result.size() >= maxResults) {
+                break;
+            }
+            for (String subId : entry.getValue().subscriptions.keySet()) {
+                TopicAndSubId key = new TopicAndSubId(entry.getKey(), subId);
+                if (isLive(key)) {
+                    result.add(entry.getKey());
+                    break;
+                }
+                stale.add(key);
+            }
+        }
+        removeAll(stale);
+        return result;
+    }
+
+    /**
+     * List topic's subscriptions, ordered by id.
+     *
+     * @param topic the topic
+     * @param subIdStart the first subscription id, inclusive
+     * @param maxResults max number of subscriptions
+     * @param expiresBefore if non-zero, only subscriptions expiring before this time (in seconds)
+     * @return subscriptions
+     */
+    synchronized List<SubscriptionHolder> listSubscriptions(String topic, String subIdStart, int maxResults, long expiresBefore) {
+        final List<SubscriptionHolder> result = new ArrayList<SubscriptionHolder>();
+        final TopicIndex index = topics.get(topic);
+        if (index == null) {
+            return result;
+        }
+        final long now = System.currentTimeMillis() / 1000;
+        final List<TopicAndSubId> stale = new ArrayList<TopicAndSubId>();
+        for (SubscriptionHolder holder : index.subscriptions.tailMap(subIdStart, true).values()) {
+            if (result.size() >= maxResults) {
+                break;
+            }
+            final long expirationTimeSec = holder.getExpirationTimeSec();
+            if (expirationTimeSec < now || (expiresBefore > 0 && expirationTimeSec >= expiresBefore)) {
+                continue;
+            }
+            TopicAndSubId key = new TopicAndSubId(topic, holder.getId());
+            if (isLive(key)) {
+                result.add(holder);
+            } else {
+                stale.add(key);
+            }
+        }
+        removeAll(stale);
+        return result;
+    }
+
+    /**
+     * Is the entry still in the local data container.
+     * Expiration and rehashing are not always notified, so the index can be stale.
+     */
+    private boolean isLive(TopicAndSubId key) {
+        return cache.getDataContainer().containsKey(key);
+    }
+
+    private void removeAll(List<TopicAndSubId> keys) {
+        for (TopicAndSubId key : keys) {
+            remove(key);
+        }
+    }
+
+    private static void addTerms(Set<Term> terms, String field, String value) {
+        try {
+            TokenStream stream = ANALYZER.tokenStream(field, new StringReader(value));
+            try {
+                CharTermAttribute term = stream.addAttribute(CharTermAttribute.class);
+                stream.reset();
+                while (stream.incrementToken()) {
+                    terms.add(new Term(field, term.toString()));
+                }
+                stream.end();
+            } finally {
+                stream.close();
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // in-memory, should not happen
+        }
+    }
+
+    private static class TopicIndex {
+        private final NavigableMap<String, SubscriptionHolder> subscriptions = new TreeMap<String, SubscriptionHolder>();
+        private final Map<String, Query> compiled = new HashMap<String, Query>();
+        private final Map<String, Set<Term>> requiredTerms = new HashMap<String, Set<Term>>();
+        private final Map<Term, Set<String>> byTerm = new HashMap<Term, Set<String>>();
+        private final Set<String> unindexed = new HashSet<String>();
+
+        private void add(String subId, SubscriptionHolder holder, Query query) {
+            subscriptions.put(subId, holder);
+            compiled.put(subId, query);
+            Set<Term> terms = QueryTerms.extract(query);
+            if (terms == null) {
+                unindexed.add(subId);
+            } else {
+                requiredTerms.put(subId, terms);
+                for (Term term : terms) {
+                    Set<String> ids = byTerm.get(term);
+                    if (ids == null) {
+                        ids = new HashSet<String>();
+                        byTerm.put(term, ids);
+                    }
+                    ids.add(subId);
+                }
+            }
+        }
+
+        private void remove(String subId) {
+            if (subscriptions.remove(subId) == null) {
+                return;
+            }
+            compiled.remove(subId);
+            unindexed.remove(subId);
+            Set<Term> terms = requiredTerms.remove(subId);
+            if (terms != null) {
+                for (Term term : terms) {
+                    Set<String> ids = byTerm.get(term);
+                    ids.remove(subId);
+                    if (ids.isEmpty()) {
+                        byTerm.remove(term);
+                    }
+                }
+            }
+        }
+
+        private boolean isEmpty() {
+            return subscriptions.isEmpty();
+        }
+
+        private List<Candidate> getCandidates(Set<Term> terms) {
+            Set<String> ids = new HashSet<String>(unindexed);
+            for (Term term : terms) {
+                Set<String> matching = byTerm.get(term);
+                if (matching != null) {
+                    ids.addAll(matching);
+                }
+            }
+            List<Candidate> candidates = new ArrayList<Candidate>(ids.size());
+            for (String id : ids) {
+                candidates.add(new Candidate(subscriptions.get(id), compiled.get(id)));
+            }
+            return candidates;
+        }
+    }
+
+    private static class Candidate {
+        private final SubscriptionHolder holder;
+        private final Query query;
+
+        private Candidate(SubscriptionHolder holder, Query query) {
+            this.holder = holder;
+            this.query = query;
+        }
+    }
+
+    @Listener
+    public class IndexListener {
+        @CacheEntryModified
+        public void onPut(CacheEntryModifiedEvent<TopicAndSubId, SubscriptionHolder> event) {
+            if (event.isPre() == false && event.getValue() != null) {
+                add(event.getKey(), event.getValue());
+            }
+        }
+
+        @CacheEntryRemoved
+        public void onRemove(CacheEntryRemovedEvent<TopicAndSubId, SubscriptionHolder> event) {
+            if (event.isPre() == false) {
+                remove(event.getKey());
+            }
+        }
+
+        @CacheEntryInvalidated
+        public void onInvalidate(CacheEntryInvalidatedEvent<TopicAndSubId, SubscriptionHolder> event) {
+            remove(event.getKey());
+        }
+    }
+}
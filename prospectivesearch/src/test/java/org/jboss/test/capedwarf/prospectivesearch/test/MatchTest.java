@@ -152,6 +152,21 @@ public class MatchTest extends MatchTestBase {
         assertNull("servlet should not have received document", MatchResponseServlet.getLastInvocationData().getDocument());
     }
 
+    @Test
+    public void testServletReceivesDocumentWhenSubIdsDoNotFitUrl() throws Exception {
+        String[] subIds = new String[50];
+        for (int i = 0; i < subIds.length; i++) {
+            subIds[i] = "subscription_with_a_rather_long_id_to_overflow_the_url_" + i;
+            service.subscribe(TOPIC, subIds[i], 0, "title:foo", createSchema("title", FieldType.STRING));
+        }
+
+        Entity entity = articleWithTitle("Foo foo");
+        service.match(entity, TOPIC);
+
+        assertServletWasInvokedWith(entity);
+        assertServletReceivedSubIds(subIds);
+    }
+
     @Test
     public void testMatchOnStringField() throws Exception {
         service.subscribe(TOPIC, "foo", 0, "title:happy", createSchema("title", FieldType.STRING));
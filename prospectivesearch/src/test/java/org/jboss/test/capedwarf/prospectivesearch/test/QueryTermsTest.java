@@ -0,0 +1,190 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.test.capedwarf.prospectivesearch.test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.miscellaneous.PatternAnalyzer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.memory.MemoryIndex;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.PhraseQuery;
+import org.apache.lucene.search.PrefixQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.jboss.capedwarf.prospectivesearch.QueryTerms;
+import org.jboss.test.capedwarf.common.support.JBoss;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Every document a query matches must contain one of its extracted terms.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+@Category(JBoss.class)
+public class QueryTermsTest {
+    private static final Analyzer ANALYZER = PatternAnalyzer.DEFAULT_ANALYZER;
+
+    private static final String[][] DOCUMENTS = {
+        {"title", "Foo", "body", "bar"},
+        {"title", "Foo Bar", "body", "baz"},
+        {"title", "happy day", "body", "foo"},
+        {"title", "day happy", "body", "bar"},
+        {"title", "barbecue", "body", "qux"},
+        {"title", "other", "body", "baz qux"},
+        {"title", "nothing", "body", "here"},
+    };
+
+    @Test
+    public void testTerm() throws Exception {
+        Query query = term("title", "foo");
+        assertEquals(Collections.singleton(new Term("title", "foo")), QueryTerms.extract(query));
+        assertMatchesAreCandidates(query, 2);
+    }
+
+    @Test
+    public void testRequiredClauseInNestedBooleans() throws Exception {
+        BooleanQuery inner = new BooleanQuery();
+        inner.add(term("title", "foo"), BooleanClause.Occur.MUST);
+        inner.add(term("body", "baz"), BooleanClause.Occur.SHOULD);
+
+        BooleanQuery middle = new BooleanQuery();
+        middle.add(inner, BooleanClause.Occur.MUST);
+        middle.add(new PrefixQuery(new Term("body", "ba")), BooleanClause.Occur.MUST);
+
+        BooleanQuery query = new BooleanQuery();
+        query.add(middle, BooleanClause.Occur.MUST);
+        query.add(term("body", "qux"), BooleanClause.Occur.SHOULD);
+
+        assertEquals(Collections.singleton(new Term("title", "foo")), QueryTerms.extract(query));
+        assertMatchesAreCandidates(query, 2);
+    }
+
+    @Test
+    public void testPhrase() throws Exception {
+        PhraseQuery query = new PhraseQuery();
+        query.add(new Term("title", "happy"));
+        query.add(new Term("title", "day"));
+
+        Set<Term> terms = QueryTerms.extract(query);
+        assertEquals(1, terms.size());
+        assertMatchesAreCandidates(query, 1);
+    }
+
+    @Test
+    public void testShouldClauses() throws Exception {
+        BooleanQuery query = new BooleanQuery();
+        query.add(term("title", "foo"), BooleanClause.Occur.SHOULD);
+        query.add(term("body", "qux"), BooleanClause.Occur.SHOULD);
+
+        assertEquals(new HashSet<Term>(Arrays.asList(new Term("title", "foo"), new Term("body", "qux"))), QueryTerms.extract(query));
+        assertMatchesAreCandidates(query, 4);
+    }
+
+    @Test
+    public void testShouldWithNonExtractableClause() throws Exception {
+        BooleanQuery query = new BooleanQuery();
+        query.add(term("title", "foo"), BooleanClause.Occur.SHOULD);
+        query.add(new PrefixQuery(new Term("title", "bar")), BooleanClause.Occur.SHOULD);
+
+        assertNull(QueryTerms.extract(query));
+        assertMatchesAreCandidates(query, 3);
+    }
+
+    @Test
+    public void testMustNotOnly() throws Exception {
+        BooleanQuery query = new BooleanQuery();
+        query.add(term("title", "foo"), BooleanClause.Occur.MUST_NOT);
+
+        assertNull(QueryTerms.extract(query));
+        assertMatchesAreCandidates(query, 0);
+
+        BooleanQuery all = new BooleanQuery();
+        all.add(new MatchAllDocsQuery(), BooleanClause.Occur.MUST);
+        all.add(term("title", "foo"), BooleanClause.Occur.MUST_NOT);
+
+        assertNull(QueryTerms.extract(all));
+        assertMatchesAreCandidates(all, DOCUMENTS.length - 2);
+    }
+
+    private static Query term(String field, String text) {
+        return new TermQuery(new Term(field, text));
+    }
+
+    private static void assertMatchesAreCandidates(Query query, int expectedMatches) throws IOException {
+        Set<Term> extracted = QueryTerms.extract(query);
+        int matches = 0;
+        for (String[] document : DOCUMENTS) {
+            MemoryIndex memoryIndex = new MemoryIndex();
+            Set<Term> terms = new HashSet<Term>();
+            for (Map.Entry<String, String> entry : toMap(document).entrySet()) {
+                memoryIndex.addField(entry.getKey(), entry.getValue(), ANALYZER);
+                addTerms(terms, entry.getKey(), entry.getValue());
+            }
+            if (memoryIndex.search(query) > 0.0f) {
+                matches++;
+                assertTrue(toMap(document) + " matches " + query + ", but isn't a candidate", extracted == null || Collections.disjoint(extracted, terms) == false);
+            }
+        }
+        assertEquals("Matches of " + query, expectedMatches, matches);
+    }
+
+    private static Map<String, String> toMap(String[] document) {
+        Map<String, String> map = new HashMap<String, String>();
+        for (int i = 0; i < document.length; i += 2) {
+            map.put(document[i], document[i + 1]);
+        }
+        return map;
+    }
+
+    private static void addTerms(Set<Term> terms, String field, String value) throws IOException {
+        TokenStream stream = ANALYZER.tokenStream(field, new StringReader(value));
+        try {
+            CharTermAttribute term = stream.addAttribute(CharTermAttribute.class);
+            stream.reset();
+            while (stream.incrementToken()) {
+                terms.add(new Term(field, term.toString()));
+            }
+            stream.end();
+        } finally {
+            stream.close();
+        }
+    }
+}
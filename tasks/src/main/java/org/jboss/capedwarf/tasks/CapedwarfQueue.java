@@ -275,7 +275,8 @@ public class CapedwarfQueue implements Queue {
             if (uri.getRawQuery() != null && !options.getParams().isEmpty()) {
                 throw new IllegalArgumentException("The TaskOptions should not contain both a query string and parameters.");
             }
-            if (options.getMethod() == TaskOptions.Method.POST && uri.getRawQuery() != null) {
+            // unless opted in, with a payload that can't be mixed up with form parameters
+            if (options.getMethod() == TaskOptions.Method.POST && uri.getRawQuery() != null && (options.getPayload() == null || options.hasQueryParams() == false)) {
                 throw new IllegalArgumentException("Tasks with method POST must not contain a query string. Use parameters instead.");
             }
         }
@@ -13,6 +13,7 @@ import org.jboss.capedwarf.common.reflection.TargetInvocation;
  * @author <a href="mailto:mluksa@redhat.com">Marko Luksa</a>
  */
 public class TaskOptionsHelper {
+    public static final String QUERY_PARAMS_HEADER = "X-CapeDwarf-Query-Params";
 
     private static final TargetInvocation<TaskOptions.Method> getMethod = ReflectionUtils.cacheInvocation(TaskOptions.class, "getMethod");
     private static final TargetInvocation<String> getTaskName = ReflectionUtils.cacheInvocation(TaskOptions.class, "getTaskName");
@@ -72,6 +73,17 @@ public class TaskOptionsHelper {
         return invoke(taskOptions, getHeaders);
     }
 
+    /**
+     * Does the task opt in to have the query string of its url passed as parameters,
+     * next to its payload.
+     *
+     * @return true if the task has the query params header
+     */
+    public boolean hasQueryParams() {
+        Map<String, List<String>> headers = getHeaders();
+        return headers != null && headers.containsKey(QUERY_PARAMS_HEADER);
+    }
+
     private <T> T invoke(Object target, TargetInvocation<T> targetInvocation) {
         try {
             return targetInvocation.invoke(target);
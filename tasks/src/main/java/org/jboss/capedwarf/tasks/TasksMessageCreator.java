@@ -106,25 +106,40 @@ public class TasksMessageCreator implements MessageCreator {
 
     @SuppressWarnings("unchecked")
     private void addParameters(Message message) throws JMSException {
+        Map<String, String> map = new HashMap<String, String>();
         List<Object> params = taskOptions.getParams();
-        if (params != null && params.size() > 0) {
-            Map<String, String> map = new HashMap<String, String>();
+        if (params != null) {
             for (Object param : params) {
                 String key = (String) ReflectionUtils.invokeInstanceMethod(param, "getURLEncodedName");
                 String value = (String) ReflectionUtils.invokeInstanceMethod(param, "getURLEncodedValue");
-
-                String values = map.get(key);
-                if (values == null) {
-                    values = value;
-                } else {
-                    values = values + TasksServletRequestCreator.DELIMITER + value;
+                addParameter(map, key, value);
+            }
+        }
+        // query string of an opted in task, already url encoded
+        String query = getQuery();
+        if (query != null && taskOptions.hasQueryParams()) {
+            for (String pair : query.split("&")) {
+                if (pair.length() > 0) {
+                    int p = pair.indexOf('=');
+                    addParameter(map, (p < 0) ? pair : pair.substring(0, p), (p < 0) ? "" : pair.substring(p + 1));
                 }
-                map.put(key, values);
             }
+        }
+        if (map.isEmpty() == false) {
             TasksServletRequestCreator.put(message, TasksServletRequestCreator.PARAMS, map);
         }
     }
 
+    private static void addParameter(Map<String, String> map, String key, String value) {
+        String values = map.get(key);
+        if (values == null) {
+            values = value;
+        } else {
+            values = values + TasksServletRequestCreator.DELIMITER + value;
+        }
+        map.put(key, values);
+    }
+
     @SuppressWarnings("unchecked")
     private void addHeaders(Message message) throws JMSException {
         Map<String, List<String>> headers = taskOptions.getHeaders();
@@ -155,7 +170,21 @@ public class TasksMessageCreator implements MessageCreator {
     }
 
     public String getPath() {
-        return taskOptions.getUrl() == null ? getDefaultUrl() : taskOptions.getUrl();
+        String url = taskOptions.getUrl();
+        if (url == null) {
+            return getDefaultUrl();
+        }
+        if (taskOptions.hasQueryParams() == false) {
+            return url;
+        }
+        int q = url.indexOf('?');
+        return (q < 0) ? url : url.substring(0, q);
+    }
+
+    private String getQuery() {
+        String url = taskOptions.getUrl();
+        int q = (url != null) ? url.indexOf('?') : -1;
+        return (q < 0) ? null : url.substring(q + 1);
     }
 
     private String getDefaultUrl() {
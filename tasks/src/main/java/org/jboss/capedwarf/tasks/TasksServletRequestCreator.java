@@ -112,7 +112,7 @@ public class TasksServletRequestCreator extends AbstractServletRequestCreator {
                 public int read() throws IOException {
                     try {
                         final int rc = msg.readBytes(buf, 1);
-                        return (rc != -1) ? buf[0] : -1;
+                        return (rc != -1) ? (buf[0] & 0xFF) : -1;
                     } catch (JMSException e) {
                         throw new IOException(e);
                     }
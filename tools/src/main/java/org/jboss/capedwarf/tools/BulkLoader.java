@@ -22,19 +22,24 @@
 
 package org.jboss.capedwarf.tools;
 
-import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
-import org.apache.http.HttpResponse;
-import org.apache.http.client.methods.HttpGet;
-import org.apache.http.client.methods.HttpPut;
-import org.apache.http.entity.FileEntity;
 import org.apache.http.impl.client.DefaultHttpClient;
-import org.apache.http.impl.conn.SingleClientConnManager;
+import org.apache.http.impl.conn.PoolingClientConnectionManager;
 
 /**
  * @author <a href="mailto:mluksa@redhat.com">Marko Luksa</a>
@@ -59,7 +64,8 @@ public class BulkLoader {
     }
 
     private static void printUsage() {
-        System.out.println("Usage: BulkLoader upload --url=http://myapp.com/remote_api --filename=dump.sql3");
+        System.out.println("Usage: BulkLoader upload --url=http://myapp.com/remote_api --filename=dump.sql3 [--packetSize=1000] [--threads=4] [--restart]");
+        System.out.println("       BulkLoader dump --url=http://myapp.com/remote_api --filename=dump.sql3 [--threads=4] [--batchSize=1000]");
         System.exit(1);
     }
 
@@ -67,50 +73,83 @@ public class BulkLoader {
         String url = getUrl(args);
         String filename = getFilename(args);
         int packetSize = getPacketSize(args);
-        System.out.println("Uploading data from " + filename + " to " + url + " in packets of size " + packetSize);
+        int threads = getThreads(args);
+        System.out.println("Uploading data from " + filename + " to " + url + " in packets of size " + packetSize + ", " + threads + " at a time");
 
         DumpFileFacade dumpFileFacade = new DumpFileFacade(new File(filename));
+        DefaultHttpClient client = createClient(threads);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
         try {
-            Iterator<byte[]> iterator = dumpFileFacade.iterator();
+            if (args.get("--restart") != null) {
+                dumpFileFacade.clearCheckpoint(url);
+            }
+            long checkpoint = dumpFileFacade.getCheckpoint(url);
+            if (checkpoint > 0) {
+                System.out.println("Resuming upload after row " + checkpoint);
+            }
 
-            DefaultHttpClient client = new DefaultHttpClient(new SingleClientConnManager());
-            try {
-                File partFile = new File(filename + ".part");
-                UploadPacket packet = new UploadPacket(partFile);
-                while (iterator.hasNext()) {
-                    byte[] pbBytes = iterator.next();
-                    packet.add(pbBytes);
-
-                    if (packet.size() == packetSize || !iterator.hasNext()) {
-                        packet.close();
-                        sendPacket(packet, client, url);
-                        if (iterator.hasNext()) {
-                            packet = new UploadPacket(partFile);
-                        }
+            CompletionService<UploadPacket> completionService = new ExecutorCompletionService<UploadPacket>(executor);
+            UploadProgress progress = new UploadProgress(checkpoint);
+            int inFlight = 0;
+            long sequence = 0;
+
+            Iterator<DumpFileFacade.DumpRow> iterator = dumpFileFacade.rows(checkpoint);
+            UploadPacket packet = new UploadPacket(sequence++);
+            while (iterator.hasNext()) {
+                DumpFileFacade.DumpRow row = iterator.next();
+                packet.add(row.getValue(), row.getRowId());
+
+                if (packet.size() == packetSize || !iterator.hasNext()) {
+                    packet.close();
+                    if (inFlight == threads) {
+                        completed(completionService.take(), progress, dumpFileFacade, url);
+                        inFlight--;
                     }
+                    completionService.submit(new SendPacketTask(packet, client, url));
+                    inFlight++;
+                    packet = new UploadPacket(sequence++);
                 }
-
-            } catch (IOException e) {
-                throw new RuntimeException(e);
             }
+            for (; inFlight > 0; inFlight--) {
+                completed(completionService.take(), progress, dumpFileFacade, url);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
         } finally {
+            executor.shutdownNow();
+            client.getConnectionManager().shutdown();
             dumpFileFacade.close();
         }
     }
 
-    private static void sendPacket(UploadPacket packet, DefaultHttpClient client, String url) throws IOException {
-        HttpPut put = new HttpPut(url);
-        System.out.println("Uploading packet of " + packet.size() + " entities");
-        put.setEntity(new FileEntity(packet.getFile(), "application/capedwarf-data"));
-        HttpResponse response = client.execute(put);
-        response.getEntity().writeTo(new ByteArrayOutputStream());
-        System.out.println("Received response " + response);
+    private static void completed(Future<UploadPacket> future, UploadProgress progress, DumpFileFacade dumpFileFacade, String url) throws InterruptedException {
+        UploadPacket packet;
+        try {
+            packet = future.get();
+        } catch (ExecutionException e) {
+            System.out.println("Upload failed, re-run to resume from the last checkpoint.");
+            throw new RuntimeException(e.getCause());
+        }
+        long checkpoint = progress.completed(packet);
+        if (checkpoint > 0) {
+            dumpFileFacade.setCheckpoint(url, checkpoint);
+        }
+    }
+
+    private static DefaultHttpClient createClient(int threads) {
+        PoolingClientConnectionManager connectionManager = new PoolingClientConnectionManager();
+        connectionManager.setMaxTotal(threads);
+        connectionManager.setDefaultMaxPerRoute(threads);
+        return new DefaultHttpClient(connectionManager);
     }
 
     private static void doDump(Arguments args) {
         String url = getUrl(args);
         String filename = getFilename(args);
-        int packetSize = getPacketSize(args);
+        int threads = getThreads(args);
 
         File file = new File(filename);
         if (file.exists()) {
@@ -118,38 +157,64 @@ public class BulkLoader {
             System.exit(1);
         }
 
-        System.out.println("Dumping data from " + url + " to " + filename + " in packets of size " + packetSize);
+        System.out.println("Dumping data from " + url + " to " + filename + " in " + threads + " key ranges");
 
         DumpFileFacade dumpFileFacade = new DumpFileFacade(file);
+        DefaultHttpClient client = createClient(threads);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<Void>> results = new ArrayList<Future<Void>>();
+        boolean success = false;
         try {
-            DefaultHttpClient client = new DefaultHttpClient(new SingleClientConnManager());
-            try {
-                HttpGet get = new HttpGet(url);
-                get.getParams().setParameter("action", "dump");
-                System.out.println("Downloading packet of " + packetSize + " entities");
-                HttpResponse response = client.execute(get);
-                DataInputStream in = new DataInputStream(response.getEntity().getContent());
-                while (true) {
-                    byte[] idBytes = readArray(in);
-                    if (idBytes == null) {
-                        break;
+            dumpFileFacade.beginBulkInsert(getBatchSize(args));
+            // streams read in parallel, rows written here, as the dump file is single-threaded
+            BlockingQueue<byte[][]> rows = new ArrayBlockingQueue<byte[][]>(1000);
+            List<DumpRangeTask> tasks = new ArrayList<DumpRangeTask>();
+            for (int shard = 0; shard < threads; shard++) {
+                String shardUrl = (threads > 1) ? url + (url.contains("?") ? "&" : "?") + "shard=" + shard + "&shards=" + threads : url;
+                DumpRangeTask task = new DumpRangeTask(client, shardUrl, threads, rows);
+                tasks.add(task);
+                results.add(executor.submit(task));
+            }
+            int running = threads;
+            while (running > 0) {
+                byte[][] row = rows.take();
+                if (row == DumpRangeTask.END) {
+                    running--;
+                    // fail fast, the other ranges are cancelled below
+                    for (DumpRangeTask task : tasks) {
+                        if (task.getFailure() != null) {
+                            throw new RuntimeException(task.getFailure());
+                        }
                     }
-                    byte[] entityPbBytes = readArray(in);
-                    byte[] sortKeyBytes = readArray(in);
-
-                    dumpFileFacade.add(idBytes, entityPbBytes, sortKeyBytes);
+                } else {
+                    dumpFileFacade.add(row[0], row[1], row[2]);
                 }
-
-            } catch (IOException e) {
-                throw new RuntimeException(e);
             }
+            for (Future<Void> result : results) {
+                result.get();
+            }
+            success = true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
         } finally {
-            dumpFileFacade.close();
+            for (Future<Void> result : results) {
+                result.cancel(true);
+            }
+            executor.shutdownNow();
+            client.getConnectionManager().shutdown();
+            if (success) {
+                dumpFileFacade.close();
+            } else if (dumpFileFacade.discard() == false) {
+                // a partial dump can't be resumed
+                System.out.println("WARNING: Cannot delete partial dump " + filename);
+            }
         }
-
     }
 
-    private static byte[] readArray(DataInputStream in) {
+    static byte[] readArray(DataInputStream in) {
         try {
             int arraySize;
             try {
@@ -169,6 +234,14 @@ public class BulkLoader {
         return Integer.valueOf(args.get("--packetSize", "1000"));
     }
 
+    private static Integer getBatchSize(Arguments args) {
+        return Integer.valueOf(args.get("--batchSize", "1000"));
+    }
+
+    private static Integer getThreads(Arguments args) {
+        return Integer.valueOf(args.get("--threads", "4"));
+    }
+
     private static String getFilename(Arguments args) {
         return args.get("--filename");
     }
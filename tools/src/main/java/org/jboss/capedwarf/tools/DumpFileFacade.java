@@ -28,22 +28,27 @@ import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.Iterator;
 
 /**
  * @author <a href="mailto:mluksa@redhat.com">Marko Luksa</a>
  */
 public class DumpFileFacade {
+    private static final int FETCH_SIZE = 1000;
 
     private Connection connection;
     private File sqliteFile;
     private PreparedStatement insertStatement;
+    private int batchSize;
+    private int pending;
 
     public DumpFileFacade(File sqliteFile) {
         this.sqliteFile = sqliteFile;
         loadJdbcDriver();
         openConnection();
         createResultsTableIfNotExists();
+        createProgressTableIfNotExists();
     }
 
     private void createResultsTableIfNotExists() {
@@ -57,6 +62,16 @@ public class DumpFileFacade {
         }
     }
 
+    private void createProgressTableIfNotExists() {
+        try {
+            connection.createStatement().execute("CREATE TABLE IF NOT EXISTS progress (\n" +
+                "url TEXT primary key,\n" +
+                "last_rowid INTEGER not null);");
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     private void openConnection() {
         try {
             connection = DriverManager.getConnection("jdbc:sqlite:" + sqliteFile.getAbsolutePath());
@@ -73,8 +88,28 @@ public class DumpFileFacade {
         }
     }
 
+    /**
+     * Switch to bulk insert mode; rows are inserted in batches, each batch in its own transaction.
+     * WAL journal and no syncing are used until close, so a crash can corrupt the file;
+     * a failed dump should be discarded, not resumed.
+     *
+     * @param batchSize rows per transaction
+     */
+    public void beginBulkInsert(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Invalid batch size: " + batchSize);
+        }
+        try {
+            execute("PRAGMA journal_mode=WAL");
+            execute("PRAGMA synchronous=OFF");
+            connection.setAutoCommit(false);
+            this.batchSize = batchSize;
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     public void add(byte[] id, byte[] entityPb, byte[] sortKey) {
-        System.out.println("DumpFileFacade.add");
         try {
             if (insertStatement == null) {
                 insertStatement = connection.prepareStatement("INSERT INTO result (id, value, sort_key) VALUES (?, ?, ?)");
@@ -82,29 +117,158 @@ public class DumpFileFacade {
             insertStatement.setBytes(1, id);
             insertStatement.setBytes(2, entityPb);
             insertStatement.setBytes(3, sortKey);
-            insertStatement.executeUpdate();
+            if (batchSize > 0) {
+                insertStatement.addBatch();
+                if (++pending >= batchSize) {
+                    flush();
+                }
+            } else {
+                insertStatement.executeUpdate();
+            }
         } catch (SQLException e) {
             throw new RuntimeException(e);
         }
     }
 
+    /**
+     * Insert and commit pending rows.
+     */
+    public void flush() {
+        if (pending == 0) {
+            return;
+        }
+        try {
+            insertStatement.executeBatch();
+            connection.commit();
+            pending = 0;
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void endBulkInsert() throws SQLException {
+        flush();
+        connection.setAutoCommit(true);
+        // back to the default journal, so the dump stays a single self-contained file
+        execute("PRAGMA journal_mode=DELETE");
+        batchSize = 0;
+    }
+
+    private void execute(String sql) throws SQLException {
+        Statement statement = connection.createStatement();
+        try {
+            statement.execute(sql);
+        } finally {
+            statement.close();
+        }
+    }
+
     public Iterator<byte[]> iterator() {
         try {
-            ResultSet rset = connection.createStatement().executeQuery("SELECT * FROM result");
+            Statement statement = connection.createStatement();
+            statement.setFetchSize(FETCH_SIZE);
+            ResultSet rset = statement.executeQuery("SELECT * FROM result");
             return new ResultSetIterator(rset);
         } catch (SQLException e) {
             throw new RuntimeException(e);
         }
     }
 
+    /**
+     * Iterate rows after the given row id, in row id order.
+     *
+     * @param afterRowId the row id to start after, 0 for all
+     * @return rows iterator
+     */
+    public Iterator<DumpRow> rows(long afterRowId) {
+        try {
+            PreparedStatement statement = connection.prepareStatement("SELECT rowid, value FROM result WHERE rowid > ? ORDER BY rowid");
+            statement.setLong(1, afterRowId);
+            statement.setFetchSize(FETCH_SIZE);
+            return new DumpRowIterator(statement.executeQuery());
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Get the last row id uploaded to the url.
+     *
+     * @param url the url
+     * @return the row id, or 0 if none
+     */
+    public long getCheckpoint(String url) {
+        try {
+            PreparedStatement statement = connection.prepareStatement("SELECT last_rowid FROM progress WHERE url = ?");
+            statement.setString(1, url);
+            ResultSet rset = statement.executeQuery();
+            try {
+                return rset.next() ? rset.getLong(1) : 0;
+            } finally {
+                rset.close();
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public void setCheckpoint(String url, long rowId) {
+        try {
+            PreparedStatement statement = connection.prepareStatement("INSERT OR REPLACE INTO progress (url, last_rowid) VALUES (?, ?)");
+            statement.setString(1, url);
+            statement.setLong(2, rowId);
+            statement.executeUpdate();
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public void clearCheckpoint(String url) {
+        try {
+            PreparedStatement statement = connection.prepareStatement("DELETE FROM progress WHERE url = ?");
+            statement.setString(1, url);
+            statement.executeUpdate();
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     public void close() {
         try {
+            if (batchSize > 0) {
+                endBulkInsert();
+            }
+            if (insertStatement != null) {
+                insertStatement.close();
+            }
             connection.close();
         } catch (SQLException e) {
             throw new RuntimeException(e);
         }
     }
 
+    /**
+     * Close without flushing, and delete the file with its WAL and shared memory files.
+     *
+     * @return true if all the files are gone
+     */
+    public boolean discard() {
+        try {
+            if (insertStatement != null) {
+                insertStatement.close();
+            }
+            connection.close();
+        } catch (SQLException ignored) {
+        }
+        boolean deleted = true;
+        for (String suffix : new String[]{"", "-wal", "-shm"}) {
+            File file = new File(sqliteFile.getPath() + suffix);
+            if (file.delete() == false && file.exists()) {
+                deleted = false;
+            }
+        }
+        return deleted;
+    }
 
     private static class ResultSetIterator implements Iterator<byte[]> {
 
@@ -145,4 +309,63 @@ public class DumpFileFacade {
             throw new UnsupportedOperationException();
         }
     }
+
+    public static class DumpRow {
+        private final long rowId;
+        private final byte[] value;
+
+        private DumpRow(long rowId, byte[] value) {
+            this.rowId = rowId;
+            this.value = value;
+        }
+
+        public long getRowId() {
+            return rowId;
+        }
+
+        public byte[] getValue() {
+            return value;
+        }
+    }
+
+    private static class DumpRowIterator implements Iterator<DumpRow> {
+
+        private DumpRow next;
+        private ResultSet rset;
+
+        public DumpRowIterator(ResultSet rset) {
+            this.rset = rset;
+            readNextFromResultSet();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public DumpRow next() {
+            DumpRow result = next;
+            readNextFromResultSet();
+            return result;
+        }
+
+        private void readNextFromResultSet() {
+            try {
+                if (rset.next()) {
+                    next = new DumpRow(rset.getLong(1), rset.getBytes(2));
+                } else {
+                    next = null;
+                    rset.close();
+                }
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
 }
@@ -0,0 +1,109 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.capedwarf.tools;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.util.EntityUtils;
+
+/**
+ * Stream one key range of the dump into the queue.
+ * The range is terminated with END, also on failure, unless the task was cancelled.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+class DumpRangeTask implements Callable<Void> {
+    static final byte[][] END = new byte[0][];
+    static final String SHARDS_HEADER = "X-CapeDwarf-Dump-Shards";
+
+    private final HttpClient client;
+    private final String url;
+    private final int shards;
+    private final BlockingQueue<byte[][]> rows;
+    private volatile Exception failure;
+
+    DumpRangeTask(HttpClient client, String url, int shards, BlockingQueue<byte[][]> rows) {
+        this.client = client;
+        this.url = url;
+        this.shards = shards;
+        this.rows = rows;
+    }
+
+    /**
+     * Get the failure, set before END is queued.
+     *
+     * @return the failure or null
+     */
+    Exception getFailure() {
+        return failure;
+    }
+
+    public Void call() throws Exception {
+        try {
+            HttpGet get = new HttpGet(url);
+            HttpResponse response = client.execute(get);
+            try {
+                int status = response.getStatusLine().getStatusCode();
+                if (status / 100 != 2) {
+                    throw new IOException("Dump of " + url + " failed: " + response.getStatusLine());
+                }
+                // older servers ignore the key range and return everything
+                if (shards > 1 && response.getFirstHeader(SHARDS_HEADER) == null) {
+                    throw new IOException("Server doesn't support parallel dump, re-run with --threads=1.");
+                }
+                DataInputStream in = new DataInputStream(response.getEntity().getContent());
+                int count = 0;
+                while (true) {
+                    byte[] idBytes = BulkLoader.readArray(in);
+                    if (idBytes == null) {
+                        break;
+                    }
+                    byte[] entityPbBytes = BulkLoader.readArray(in);
+                    byte[] sortKeyBytes = BulkLoader.readArray(in);
+                    rows.put(new byte[][]{idBytes, entityPbBytes, sortKeyBytes});
+                    count++;
+                }
+                System.out.println("Downloaded " + count + " entities from " + url);
+            } finally {
+                EntityUtils.consume(response.getEntity());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt(); // cancelled, nobody waits for END
+            throw e;
+        } catch (Exception e) {
+            failure = e;
+            throw e;
+        } finally {
+            if (Thread.currentThread().isInterrupted() == false) {
+                rows.put(END);
+            }
+        }
+        return null;
+    }
+}
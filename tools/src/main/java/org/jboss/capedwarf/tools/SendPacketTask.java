@@ -0,0 +1,68 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.capedwarf.tools;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.util.EntityUtils;
+
+/**
+ * Upload single packet.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+class SendPacketTask implements Callable<UploadPacket> {
+    private static final ContentType CONTENT_TYPE = ContentType.create("application/capedwarf-data");
+
+    private final UploadPacket packet;
+    private final HttpClient client;
+    private final String url;
+
+    SendPacketTask(UploadPacket packet, HttpClient client, String url) {
+        this.packet = packet;
+        this.client = client;
+        this.url = url;
+    }
+
+    public UploadPacket call() throws Exception {
+        HttpPut put = new HttpPut(url);
+        put.setEntity(new ByteArrayEntity(packet.getBytes(), CONTENT_TYPE));
+        HttpResponse response = client.execute(put);
+        try {
+            int status = response.getStatusLine().getStatusCode();
+            if (status / 100 != 2) {
+                throw new IOException("Packet " + packet.getSequence() + " failed: " + response.getStatusLine());
+            }
+        } finally {
+            EntityUtils.consume(response.getEntity());
+        }
+        System.out.println("Uploaded packet " + packet.getSequence() + " of " + packet.size() + " entities");
+        return packet;
+    }
+}
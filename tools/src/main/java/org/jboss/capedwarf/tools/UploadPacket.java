@@ -22,29 +22,31 @@
 
 package org.jboss.capedwarf.tools;
 
+import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
-import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 
 /**
+ * Entities uploaded in one request, kept in memory so several packets can be in flight.
+ *
  * @author <a href="mailto:mluksa@redhat.com">Marko Luksa</a>
  */
 public class UploadPacket {
 
-    private File file;
+    private final long sequence;
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    private final DataOutputStream out = new DataOutputStream(bytes);
     private int size;
-    private DataOutputStream out;
+    private long lastRowId;
 
-    public UploadPacket(File file) throws FileNotFoundException {
-        this.file = file;
-        out = new DataOutputStream(new FileOutputStream(file));
+    public UploadPacket(long sequence) {
+        this.sequence = sequence;
     }
 
-    public void add(byte[] entityPbBytes) throws IOException {
+    public void add(byte[] entityPbBytes, long rowId) throws IOException {
         out.writeInt(entityPbBytes.length);
         out.write(entityPbBytes);
+        lastRowId = rowId;
         size++;
     }
 
@@ -52,8 +54,21 @@ public class UploadPacket {
         return size;
     }
 
-    public File getFile() {
-        return file;
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Get the dump file row id of the last entity in this packet.
+     *
+     * @return the row id
+     */
+    public long getLastRowId() {
+        return lastRowId;
+    }
+
+    public byte[] getBytes() {
+        return bytes.toByteArray();
     }
 
     public void close() throws IOException {
@@ -0,0 +1,61 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.capedwarf.tools;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Tracks completed upload packets, which may complete out of order,
+ * and computes the row up to which everything has been uploaded.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class UploadProgress {
+    private final Map<Long, Long> completed = new TreeMap<Long, Long>();
+    private long nextSequence;
+    private long checkpoint;
+
+    public UploadProgress(long checkpoint) {
+        this.checkpoint = checkpoint;
+    }
+
+    /**
+     * Mark packet as completed.
+     *
+     * @param packet the uploaded packet
+     * @return new checkpoint row id, or -1 if the checkpoint didn't move
+     */
+    public long completed(UploadPacket packet) {
+        completed.put(packet.getSequence(), packet.getLastRowId());
+
+        boolean moved = false;
+        Long lastRowId;
+        while ((lastRowId = completed.remove(nextSequence)) != null) {
+            checkpoint = lastRowId;
+            nextSequence++;
+            moved = true;
+        }
+        return moved ? checkpoint : -1;
+    }
+}
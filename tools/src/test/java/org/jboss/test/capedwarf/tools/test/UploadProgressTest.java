@@ -0,0 +1,72 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.test.capedwarf.tools.test;
+
+import org.jboss.capedwarf.tools.UploadPacket;
+import org.jboss.capedwarf.tools.UploadProgress;
+import org.jboss.test.capedwarf.common.support.JBoss;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+@Category(JBoss.class)
+public class UploadProgressTest {
+
+    @Test
+    public void testInOrder() throws Exception {
+        UploadProgress progress = new UploadProgress(0);
+        assertEquals(10, progress.completed(packet(0, 10)));
+        assertEquals(20, progress.completed(packet(1, 20)));
+        assertEquals(30, progress.completed(packet(2, 30)));
+    }
+
+    @Test
+    public void testOutOfOrder() throws Exception {
+        UploadProgress progress = new UploadProgress(0);
+        assertEquals(-1, progress.completed(packet(2, 30)));
+        assertEquals(-1, progress.completed(packet(1, 20)));
+        // the first packet releases everything after it
+        assertEquals(30, progress.completed(packet(0, 10)));
+        assertEquals(-1, progress.completed(packet(4, 50)));
+        assertEquals(50, progress.completed(packet(3, 40)));
+    }
+
+    @Test
+    public void testResumedUpload() throws Exception {
+        // packet sequence restarts at 0 after the stored checkpoint
+        UploadProgress progress = new UploadProgress(100);
+        assertEquals(-1, progress.completed(packet(1, 120)));
+        assertEquals(120, progress.completed(packet(0, 110)));
+    }
+
+    private static UploadPacket packet(long sequence, long lastRowId) throws Exception {
+        UploadPacket packet = new UploadPacket(sequence);
+        packet.add(new byte[]{1, 2, 3}, lastRowId);
+        packet.close();
+        return packet;
+    }
+}
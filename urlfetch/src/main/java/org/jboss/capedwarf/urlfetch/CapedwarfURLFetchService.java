@@ -28,11 +28,13 @@ import java.net.URL;
 import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 import com.google.appengine.api.urlfetch.FetchOptions;
 import com.google.appengine.api.urlfetch.HTTPHeader;
 import com.google.appengine.api.urlfetch.HTTPRequest;
 import com.google.appengine.api.urlfetch.HTTPResponse;
+import com.google.appengine.api.urlfetch.ResponseTooLargeException;
 import com.google.appengine.api.urlfetch.URLFetchService;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.HttpClient;
@@ -47,26 +49,33 @@ import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.client.params.ClientPNames;
 import org.apache.http.entity.ByteArrayEntity;
 import org.apache.http.message.BasicHeader;
+import org.apache.http.params.HttpConnectionParams;
 import org.apache.http.protocol.BasicHttpContext;
 import org.apache.http.protocol.HttpContext;
 import org.jboss.capedwarf.common.reflection.ReflectionUtils;
 import org.jboss.capedwarf.common.reflection.TargetInvocation;
-import org.jboss.capedwarf.common.threads.ExecutorFactory;
-import org.jboss.capedwarf.shared.components.ComponentRegistry;
-import org.jboss.capedwarf.shared.components.Keys;
 
 /**
  * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
  */
 public class CapedwarfURLFetchService implements URLFetchService {
     private static TargetInvocation<Boolean> getFollowRedirects = ReflectionUtils.cacheInvocation(FetchOptions.class, "getFollowRedirects");
+    private static TargetInvocation<Boolean> getValidateCertificate = ReflectionUtils.cacheInvocation(FetchOptions.class, "getValidateCertificate");
+    private static TargetInvocation<Double> getDeadline = ReflectionUtils.cacheInvocation(FetchOptions.class, "getDeadline");
+    private static TargetInvocation<Boolean> getAllowTruncate = ReflectionUtils.cacheInvocation(FetchOptions.class, "getAllowTruncate");
+
+    private static final boolean GZIP = Boolean.parseBoolean(System.getProperty("jboss.capedwarf.urlfetch.gzip", "true"));
+    private static final String DECODE_GZIP = "jboss.capedwarf.urlfetch.decode-gzip";
+    private static final String ALLOW_TRUNCATE = "jboss.capedwarf.urlfetch.allow-truncate";
+
+    private static final double DEFAULT_DEADLINE = Double.parseDouble(System.getProperty("jboss.capedwarf.urlfetch.deadline", "60"));
 
     public HTTPResponse fetch(URL url) throws IOException {
         return fetch(new HTTPRequest(url));
     }
 
     public HTTPResponse fetch(final HTTPRequest httpRequest) throws IOException {
-        return fetch(toHttpUriRequest(httpRequest));
+        return fetch(toHttpUriRequest(httpRequest), getClient(httpRequest));
     }
 
     public Future<HTTPResponse> fetchAsync(URL url) {
@@ -75,11 +84,29 @@ public class CapedwarfURLFetchService implements URLFetchService {
 
     public Future<HTTPResponse> fetchAsync(final HTTPRequest httpRequest) {
         final HttpUriRequest request = toHttpUriRequest(httpRequest);
-        return ExecutorFactory.wrap(new Callable<HTTPResponse>() {
+        final HttpClient client = getClient(httpRequest);
+        final FutureTask<HTTPResponse> task = new FutureTask<HTTPResponse>(new Callable<HTTPResponse>() {
             public HTTPResponse call() throws Exception {
-                return fetch(request);
+                return fetch(request, client);
             }
-        });
+        }) {
+            public boolean cancel(boolean mayInterruptIfRunning) {
+                boolean cancelled = super.cancel(mayInterruptIfRunning);
+                if (cancelled) {
+                    request.abort(); // release the connection
+                }
+                return cancelled;
+            }
+        };
+        URLFetchClients.getInstance().getExecutor().execute(task);
+        return task;
+    }
+
+    protected HttpClient getClient(HTTPRequest request) {
+        FetchOptions options = request.getFetchOptions();
+        Boolean validate = (options != null) ? getValidateCertificate.invokeUnchecked(options) : null;
+        // validate, unless explicitly disabled
+        return URLFetchClients.getInstance().getClient(validate == null || validate);
     }
 
     protected HttpUriRequest toHttpUriRequest(final HTTPRequest request) {
@@ -118,12 +145,18 @@ public class CapedwarfURLFetchService implements URLFetchService {
         }
 
         FetchOptions options = request.getFetchOptions();
+        Double deadline = null;
         if (options != null) {
             boolean followRedirects = getFollowRedirects.invokeUnchecked(options);
             base.getParams().setParameter(ClientPNames.HANDLE_REDIRECTS, followRedirects);
-
-            // TODO -- other options
+            deadline = getDeadline.invokeUnchecked(options);
+            base.getParams().setBooleanParameter(ALLOW_TRUNCATE, getAllowTruncate.invokeUnchecked(options));
         }
+        // deadline bounds waiting for a pooled connection, connecting and each read
+        int timeout = (int) (1000 * (deadline != null ? deadline : DEFAULT_DEADLINE));
+        base.getParams().setLongParameter(ClientPNames.CONN_MANAGER_TIMEOUT, timeout);
+        HttpConnectionParams.setConnectionTimeout(base.getParams(), timeout);
+        HttpConnectionParams.setSoTimeout(base.getParams(), timeout);
 
         List<HTTPHeader> headers = request.getHeaders();
         if (headers != null && headers.size() > 0) {
@@ -131,19 +164,27 @@ public class CapedwarfURLFetchService implements URLFetchService {
                 base.addHeader(new BasicHeader(header.getName(), header.getValue()));
             }
         }
+        // only decode what we asked for, the app gets the raw content otherwise
+        if (GZIP && base.getFirstHeader("Accept-Encoding") == null) {
+            base.addHeader("Accept-Encoding", "gzip");
+            base.getParams().setBooleanParameter(DECODE_GZIP, true);
+        }
 
         return base;
     }
 
-    protected HTTPResponse fetch(final HttpUriRequest request) throws IOException {
+    protected HTTPResponse fetch(final HttpUriRequest request, final HttpClient client) throws IOException {
         try {
-            HttpClient client = ComponentRegistry.getInstance().getComponent(Keys.HTTP_CLIENT);
             HttpContext context = new BasicHttpContext();
             HttpResponse response = client.execute(request, context);
-            HTTPResponseHack jhr = new HTTPResponseHack(response);
-            String finalURL = (String) context.getAttribute("final.url");
+            boolean decodeGzip = request.getParams().getBooleanParameter(DECODE_GZIP, false);
+            boolean allowTruncate = request.getParams().getBooleanParameter(ALLOW_TRUNCATE, false);
+            HTTPResponseHack jhr = new HTTPResponseHack(request, response, decodeGzip, allowTruncate);
+            String finalURL = (String) context.getAttribute(URLFetchClients.FINAL_URL);
             jhr.setFinalUrl(finalURL != null ? new URL(finalURL) : request.getURI().toURL());
             return jhr.getResponse();
+        } catch (ResponseTooLargeException e) {
+            throw e;
         } catch (Exception e) {
             IOException ioe = new IOException();
             ioe.initCause(e);
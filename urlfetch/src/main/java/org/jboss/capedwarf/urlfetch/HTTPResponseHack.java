@@ -23,19 +23,26 @@
 package org.jboss.capedwarf.urlfetch;
 
 import com.google.appengine.api.urlfetch.HTTPResponse;
+import com.google.appengine.api.urlfetch.ResponseTooLargeException;
 import org.apache.http.Header;
+import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
 import org.jboss.capedwarf.common.io.IOUtils;
 
+import java.io.IOException;
 import java.io.InputStream;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Method;
 import java.net.URL;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
 
 /**
  * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
  */
-final class HTTPResponseHack {
+public final class HTTPResponseHack {
+    static final int MAX_RESPONSE_SIZE = Integer.getInteger("jboss.capedwarf.urlfetch.maxResponseSize", 32 * 1024 * 1024);
 
     private static final Constructor<HTTPResponse> ctor;
     private static final Method addHeader;
@@ -64,16 +71,80 @@ final class HTTPResponseHack {
 
     private HTTPResponse response;
 
-    HTTPResponseHack(HttpResponse response) throws Exception {
+    /**
+     * Read the response.
+     *
+     * Content over the max response size is truncated if allowed,
+     * otherwise the request is aborted, without reading the rest of the content.
+     *
+     * @param request the request
+     * @param response the response
+     * @param decodeGzip should gzip content encoding be decoded
+     * @param allowTruncate can too large content be truncated
+     * @throws Exception for any error
+     */
+    HTTPResponseHack(HttpUriRequest request, HttpResponse response, boolean decodeGzip, boolean allowTruncate) throws Exception {
+        this(request, response, decodeGzip, allowTruncate, MAX_RESPONSE_SIZE);
+    }
+
+    /**
+     * Read the response, with the given max response size.
+     *
+     * @param request the request
+     * @param response the response
+     * @param decodeGzip should gzip content encoding be decoded
+     * @param allowTruncate can too large content be truncated
+     * @param maxResponseSize the max response size
+     * @throws Exception for any error
+     */
+    public HTTPResponseHack(HttpUriRequest request, HttpResponse response, boolean decodeGzip, boolean allowTruncate, int maxResponseSize) throws Exception {
         createResponse(response.getStatusLine().getStatusCode());
-        for (Header h : response.getAllHeaders())
+
+        HttpEntity entity = response.getEntity();
+        Header encoding = (entity != null) ? entity.getContentEncoding() : null;
+        boolean gzip = decodeGzip && encoding != null && "gzip".equalsIgnoreCase(encoding.getValue());
+
+        for (Header h : response.getAllHeaders()) {
+            // decoded content no longer matches these
+            if (gzip && ("Content-Encoding".equalsIgnoreCase(h.getName()) || "Content-Length".equalsIgnoreCase(h.getName())))
+                continue;
             addHeader(h.getName(), h.getValue());
+        }
+
+        if (entity == null)
+            return;
 
-        InputStream is = response.getEntity().getContent();
-        setContent(IOUtils.toBytes(is, true));
+        long length = entity.getContentLength();
+        if (gzip == false && length > maxResponseSize && allowTruncate == false) {
+            request.abort();
+            throw new ResponseTooLargeException(request.getURI().toString());
+        }
+
+        InputStream is = entity.getContent();
+        byte[] content;
+        try {
+            if (gzip) {
+                is = new GZIPInputStream(is);
+                length = -1;
+            }
+            // read one byte over the limit, to detect too large content
+            content = IOUtils.toBytes(is, 0, maxResponseSize, length, false);
+        } catch (IOException e) {
+            request.abort();
+            throw e;
+        }
+        if (content.length > maxResponseSize) {
+            request.abort(); // don't drain the rest
+            if (allowTruncate == false)
+                throw new ResponseTooLargeException(request.getURI().toString());
+            content = Arrays.copyOf(content, maxResponseSize);
+        } else {
+            IOUtils.safeClose(is);
+        }
+        setContent(content);
     }
 
-    HTTPResponse getResponse() {
+    public HTTPResponse getResponse() {
         return response;
     }
 
@@ -0,0 +1,165 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.capedwarf.urlfetch;
+
+import java.security.cert.X509Certificate;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.ProtocolException;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.conn.ssl.TrustStrategy;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.client.DefaultRedirectStrategy;
+import org.apache.http.impl.conn.PoolingClientConnectionManager;
+import org.apache.http.impl.conn.SchemeRegistryFactory;
+import org.apache.http.protocol.HttpContext;
+import org.jboss.capedwarf.common.threads.DaemonThreadFactory;
+
+/**
+ * Pooled http clients used by url fetch.
+ *
+ * There is one client that validates server certificates and one that doesn't,
+ * both with bounded, per-route limited connection pools, and keep-alive capped to the idle timeout.
+ * Async fetches run on a dedicated pool, sized to the connection limit.
+ * The clients and the pool are shared by all apps and live as long as the container,
+ * so an undeploy never cuts off other apps' fetches; the pool's daemon threads have no context classloader.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+final class URLFetchClients {
+    static final String FINAL_URL = "final.url";
+
+    private static final int MAX_CONNECTIONS = Integer.getInteger("jboss.capedwarf.urlfetch.maxConnections", 200);
+    private static final int MAX_CONNECTIONS_PER_ROUTE = Integer.getInteger("jboss.capedwarf.urlfetch.maxConnectionsPerRoute", 20);
+    private static final long KEEP_ALIVE = Long.getLong("jboss.capedwarf.urlfetch.keepAlive", 30000L);
+
+    private static volatile URLFetchClients instance;
+
+    private final PoolingClientConnectionManager validatingManager;
+    private final PoolingClientConnectionManager trustingManager;
+    private final HttpClient validating;
+    private final HttpClient trusting;
+    private final ExecutorService executor;
+    private volatile long lastEviction = System.currentTimeMillis();
+
+    private URLFetchClients() throws Exception {
+        validatingManager = createManager(SchemeRegistryFactory.createDefault());
+        validating = createClient(validatingManager);
+
+        SchemeRegistry registry = new SchemeRegistry();
+        registry.register(new Scheme("http", 80, PlainSocketFactory.getSocketFactory()));
+        registry.register(new Scheme("https", 443, new SSLSocketFactory(new TrustStrategy() {
+            public boolean isTrusted(X509Certificate[] chain, String authType) {
+                return true;
+            }
+        }, SSLSocketFactory.ALLOW_ALL_HOSTNAME_VERIFIER)));
+        trustingManager = createManager(registry);
+        trusting = createClient(trustingManager);
+
+        executor = new ThreadPoolExecutor(MAX_CONNECTIONS, MAX_CONNECTIONS, KEEP_ALIVE, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), new DaemonThreadFactory("CapeDwarf-URLFetch"));
+        ((ThreadPoolExecutor) executor).allowCoreThreadTimeOut(true);
+    }
+
+    static URLFetchClients getInstance() {
+        if (instance == null) {
+            synchronized (URLFetchClients.class) {
+                if (instance == null) {
+                    try {
+                        instance = new URLFetchClients();
+                    } catch (Exception e) {
+                        throw new IllegalStateException("Cannot create url fetch clients.", e);
+                    }
+                }
+            }
+        }
+        return instance;
+    }
+
+    private static PoolingClientConnectionManager createManager(SchemeRegistry registry) {
+        PoolingClientConnectionManager manager = new PoolingClientConnectionManager(registry, KEEP_ALIVE, TimeUnit.MILLISECONDS);
+        manager.setMaxTotal(MAX_CONNECTIONS);
+        manager.setDefaultMaxPerRoute(MAX_CONNECTIONS_PER_ROUTE);
+        return manager;
+    }
+
+    private static HttpClient createClient(PoolingClientConnectionManager manager) {
+        DefaultHttpClient client = new DefaultHttpClient(manager);
+        client.setKeepAliveStrategy(new CappedKeepAliveStrategy());
+        client.setRedirectStrategy(new FinalUrlRedirectStrategy());
+        return client;
+    }
+
+    /**
+     * Get the client.
+     *
+     * @param validateCertificate should server certificates be validated
+     * @return the client
+     */
+    HttpClient getClient(boolean validateCertificate) {
+        evictIdleConnections();
+        return validateCertificate ? validating : trusting;
+    }
+
+    ExecutorService getExecutor() {
+        return executor;
+    }
+
+    private void evictIdleConnections() {
+        final long now = System.currentTimeMillis();
+        if (now - lastEviction < KEEP_ALIVE / 2) {
+            return;
+        }
+        lastEviction = now;
+        for (PoolingClientConnectionManager manager : new PoolingClientConnectionManager[]{validatingManager, trustingManager}) {
+            manager.closeExpiredConnections();
+            manager.closeIdleConnections(KEEP_ALIVE, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static class CappedKeepAliveStrategy extends DefaultConnectionKeepAliveStrategy {
+        public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+            long duration = super.getKeepAliveDuration(response, context);
+            return (duration > 0) ? Math.min(duration, KEEP_ALIVE) : KEEP_ALIVE;
+        }
+    }
+
+    private static class FinalUrlRedirectStrategy extends DefaultRedirectStrategy {
+        public HttpUriRequest getRedirect(HttpRequest request, HttpResponse response, HttpContext context) throws ProtocolException {
+            HttpUriRequest redirect = super.getRedirect(request, response, context);
+            context.setAttribute(FINAL_URL, redirect.getURI().toString());
+            return redirect;
+        }
+    }
+}
@@ -0,0 +1,259 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.test.capedwarf.urlfetch.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.zip.GZIPOutputStream;
+
+import com.google.appengine.api.urlfetch.HTTPHeader;
+import com.google.appengine.api.urlfetch.HTTPResponse;
+import com.google.appengine.api.urlfetch.ResponseTooLargeException;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.entity.BasicHttpEntity;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.jboss.capedwarf.urlfetch.HTTPResponseHack;
+import org.jboss.test.capedwarf.common.support.JBoss;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+@Category(JBoss.class)
+public class HTTPResponseHackTest {
+    private static final int MAX = 16;
+
+    @Test
+    public void testUnderLimit() throws Exception {
+        for (boolean allowTruncate : new boolean[]{false, true}) {
+            HttpGet request = newRequest();
+            byte[] bytes = bytes(MAX - 1);
+            HTTPResponse response = read(request, new ByteArrayEntity(bytes), false, allowTruncate);
+            assertArrayEquals(bytes, response.getContent());
+            assertFalse(request.isAborted());
+        }
+    }
+
+    @Test
+    public void testAtLimit() throws Exception {
+        for (boolean allowTruncate : new boolean[]{false, true}) {
+            HttpGet request = newRequest();
+            byte[] bytes = bytes(MAX);
+            HTTPResponse response = read(request, new ByteArrayEntity(bytes), false, allowTruncate);
+            assertArrayEquals(bytes, response.getContent());
+            assertFalse(request.isAborted());
+        }
+    }
+
+    @Test
+    public void testOverLimitTruncated() throws Exception {
+        HttpGet request = newRequest();
+        byte[] bytes = bytes(MAX + 1);
+        HTTPResponse response = read(request, new ByteArrayEntity(bytes), false, true);
+        assertArrayEquals(Arrays.copyOf(bytes, MAX), response.getContent());
+        assertTrue(request.isAborted());
+    }
+
+    @Test
+    public void testOverLimitRejected() throws Exception {
+        HttpGet request = newRequest();
+        try {
+            read(request, new ByteArrayEntity(bytes(MAX + 1)), false, false);
+            fail("Should be too large");
+        } catch (ResponseTooLargeException expected) {
+        }
+        assertTrue(request.isAborted());
+    }
+
+    @Test
+    public void testContentLengthOverLimitAbortsBeforeReading() throws Exception {
+        HttpGet request = newRequest();
+        CountingInputStream content = new CountingInputStream(bytes(MAX * 4));
+        BasicHttpEntity entity = new BasicHttpEntity();
+        entity.setContent(content);
+        entity.setContentLength(MAX * 4);
+        try {
+            read(request, entity, false, false);
+            fail("Should be too large");
+        } catch (ResponseTooLargeException expected) {
+        }
+        assertTrue(request.isAborted());
+        assertEquals(0, content.count);
+    }
+
+    @Test
+    public void testUnknownLengthOverLimitStopsReading() throws Exception {
+        HttpGet request = newRequest();
+        CountingInputStream content = new CountingInputStream(bytes(MAX * 4));
+        BasicHttpEntity entity = new BasicHttpEntity();
+        entity.setContent(content);
+        entity.setContentLength(-1);
+        try {
+            read(request, entity, false, false);
+            fail("Should be too large");
+        } catch (ResponseTooLargeException expected) {
+        }
+        assertTrue(request.isAborted());
+        assertEquals(MAX + 1, content.count);
+    }
+
+    @Test
+    public void testGzipDecoded() throws Exception {
+        HttpGet request = newRequest();
+        byte[] bytes = bytes(MAX);
+        HTTPResponse response = read(request, gzipEntity(bytes), true, false);
+        assertArrayEquals(bytes, response.getContent());
+        assertNull(getHeader(response, "Content-Encoding"));
+        assertNull(getHeader(response, "Content-Length"));
+        assertFalse(request.isAborted());
+    }
+
+    @Test
+    public void testGzipDecodedOverLimit() throws Exception {
+        // compresses to less than the limit, decodes to more
+        byte[] bytes = new byte[MAX * 64];
+        HttpEntity entity = gzipEntity(bytes);
+        assertTrue(entity.getContentLength() < MAX * 64);
+
+        HttpGet request = newRequest();
+        try {
+            read(request, entity, true, false);
+            fail("Should be too large");
+        } catch (ResponseTooLargeException expected) {
+        }
+        assertTrue(request.isAborted());
+
+        request = newRequest();
+        HTTPResponse response = read(request, gzipEntity(bytes), true, true);
+        assertArrayEquals(new byte[MAX], response.getContent());
+        assertTrue(request.isAborted());
+    }
+
+    @Test
+    public void testGzipNotDecoded() throws Exception {
+        // gzip overhead alone is over the limit, the compressed content is what counts
+        byte[] compressed = gzip(bytes(MAX / 2));
+        assertTrue(compressed.length > MAX);
+        try {
+            read(newRequest(), gzipEntity(bytes(MAX / 2)), false, false);
+            fail("Should be too large");
+        } catch (ResponseTooLargeException expected) {
+        }
+
+        HttpGet request = newRequest();
+        HTTPResponse response = read(request, gzipEntity(bytes(MAX / 2)), false, false, compressed.length);
+        assertArrayEquals(compressed, response.getContent());
+        assertEquals("gzip", getHeader(response, "Content-Encoding"));
+    }
+
+    private static HTTPResponse read(HttpGet request, HttpEntity entity, boolean decodeGzip, boolean allowTruncate) throws Exception {
+        return read(request, entity, decodeGzip, allowTruncate, MAX);
+    }
+
+    private static HTTPResponse read(HttpGet request, HttpEntity entity, boolean decodeGzip, boolean allowTruncate, int max) throws Exception {
+        HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+        if (entity.getContentEncoding() != null) {
+            response.addHeader(entity.getContentEncoding());
+        }
+        if (entity.getContentLength() >= 0) {
+            response.addHeader("Content-Length", String.valueOf(entity.getContentLength()));
+        }
+        response.setEntity(entity);
+        return new HTTPResponseHack(request, response, decodeGzip, allowTruncate, max).getResponse();
+    }
+
+    private static HttpGet newRequest() {
+        return new HttpGet("http://localhost/test");
+    }
+
+    private static String getHeader(HTTPResponse response, String name) {
+        for (HTTPHeader header : response.getHeaders()) {
+            if (header.getName().equalsIgnoreCase(name)) {
+                return header.getValue();
+            }
+        }
+        return null;
+    }
+
+    private static byte[] bytes(int size) {
+        byte[] bytes = new byte[size];
+        for (int i = 0; i < size; i++) {
+            bytes[i] = (byte) i;
+        }
+        return bytes;
+    }
+
+    private static HttpEntity gzipEntity(byte[] bytes) throws IOException {
+        ByteArrayEntity entity = new ByteArrayEntity(gzip(bytes));
+        entity.setContentEncoding("gzip");
+        return entity;
+    }
+
+    private static byte[] gzip(byte[] bytes) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        GZIPOutputStream out = new GZIPOutputStream(baos);
+        out.write(bytes);
+        out.close();
+        return baos.toByteArray();
+    }
+
+    private static class CountingInputStream extends InputStream {
+        private final InputStream delegate;
+        private int count;
+
+        private CountingInputStream(byte[] bytes) {
+            this.delegate = new ByteArrayInputStream(bytes);
+        }
+
+        public int read() throws IOException {
+            int b = delegate.read();
+            if (b != -1) {
+                count++;
+            }
+            return b;
+        }
+
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = delegate.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+    }
+}
@@ -70,9 +70,11 @@ public class CapedwarfXMPPService implements XMPPService {
     }
 
     public List<Presence> getPresence(Iterable<JID> jids, final JID fromJid) {
+        // one roster for all, presences are local
+        final Roster roster = getConnection().getRoster();
         final Function<JID, Presence> function = new Function<JID, Presence>() {
             public Presence apply(JID jid) {
-                return getPresence(jid, fromJid);
+                return presenceConverter.convert(roster.getPresence(jid.getId()));
             }
         };
         return Lists.newArrayList(Iterators.transform(jids.iterator(), function));
@@ -145,14 +147,12 @@ public class CapedwarfXMPPService implements XMPPService {
         return new HttpServletRequestMessageParser(request);
     }
 
+    private static XMPPConnection getConnection() {
+        return XMPPConnectionManager.getInstance().getConnection();
+    }
+
     private static <T> T execute(ConnectionAction<T> action) {
-        final XMPPConnectionManager manager = XMPPConnectionManager.getInstance();
-        final XMPPConnection connection = manager.createConnection();
-        try {
-            return action.execute(connection);
-        } finally {
-            manager.destroyConnection(connection);
-        }
+        return action.execute(getConnection());
     }
 
     private static interface ConnectionAction<T> {
@@ -119,14 +119,15 @@ public class HttpServletRequestMessageParser {
     private String getRequestPartAsString(String partName) throws IOException {
         return request.getParameter(partName);
 //        try {
-//            return getAsString(request.getPart(partName).getInputStream());
+//            Part part = request.getPart(partName);
+//            return getAsString(part.getInputStream(), part.getSize());
 //        } catch (ServletException ex) {
 //            throw new IOException(ex);
 //        }
     }
 
-    private String getAsString(InputStream stream) throws IOException {
-        byte[] bytes = IOUtils.toBytes(stream, true);
+    private String getAsString(InputStream stream, long size) throws IOException {
+        byte[] bytes = IOUtils.toBytes(stream, size, true);
         return new String(bytes, "UTF-8");
     }
 
@@ -22,43 +22,183 @@
 
 package org.jboss.capedwarf.xmpp;
 
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jboss.capedwarf.common.app.Application;
 import org.jboss.capedwarf.common.config.CapedwarfEnvironment;
+import org.jboss.capedwarf.common.threads.UndeployHooks;
 import org.jboss.capedwarf.shared.config.XmppConfiguration;
 import org.jivesoftware.smack.ConnectionConfiguration;
+import org.jivesoftware.smack.ConnectionListener;
 import org.jivesoftware.smack.Roster;
+import org.jivesoftware.smack.RosterListener;
+import org.jivesoftware.smack.SmackConfiguration;
 import org.jivesoftware.smack.XMPPConnection;
 import org.jivesoftware.smack.XMPPException;
+import org.jivesoftware.smack.packet.Presence;
 
 /**
+ * Keeps one long-lived, logged-in connection per app.
+ *
+ * Smack's reconnection manager restores a dropped connection, and a connection found
+ * closed is re-created on the next use. The roster, with its presences, is fetched once
+ * at login and kept current by the server's pushes, so presence lookups are local.
+ * The connection is closed when the app is undeployed.
+ *
  * @author <a href="mailto:marko.luksa@gmail.com">Marko Luksa</a>
  * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
  */
 public class XMPPConnectionManager {
+    private static final Logger log = Logger.getLogger(XMPPConnectionManager.class.getName());
     private static final XMPPConnectionManager instance = new XMPPConnectionManager();
 
+    private final ConcurrentMap<String, ManagedConnection> connections = new ConcurrentHashMap<String, ManagedConnection>();
+
+    static {
+        // whitespace keep-alive, so idle connections aren't dropped by the server or NAT
+        SmackConfiguration.setKeepAliveInterval(Integer.getInteger("jboss.capedwarf.xmpp.keepAlive", 30000));
+    }
+
     public static XMPPConnectionManager getInstance() {
         return instance;
     }
 
-    public XMPPConnection createConnection() {
-        try {
-            XmppConfiguration xmppConfig = CapedwarfEnvironment.getThreadLocalInstance().getCapedwarfConfiguration().getXmppConfiguration();
+    /**
+     * Get current app's connection.
+     *
+     * @return connected and authenticated connection
+     */
+    public XMPPConnection getConnection() {
+        final String appId = Application.getAppId();
 
-            ConnectionConfiguration config = new ConnectionConfiguration(xmppConfig.getHost(), xmppConfig.getPort());
-            XMPPConnection connection = new XMPPConnection(config);
-            connection.connect();
-            connection.login(xmppConfig.getUsername(), xmppConfig.getPassword());
-            connection.getRoster().setSubscriptionMode(Roster.SubscriptionMode.accept_all);
+        ManagedConnection mc = connections.get(appId);
+        if (mc == null) {
+            synchronized (this) {
+                mc = connections.get(appId);
+                if (mc == null) {
+                    XmppConfiguration xmppConfig = CapedwarfEnvironment.getThreadLocalInstance().getCapedwarfConfiguration().getXmppConfiguration();
+                    mc = new ManagedConnection(appId, xmppConfig);
+                    connections.put(appId, mc);
+                    UndeployHooks.add(appId, new Runnable() {
+                        public void run() {
+                            disconnect(appId);
+                        }
+                    });
+                }
+            }
+        }
+        return mc.get();
+    }
 
-            return connection;
-        } catch (XMPPException e) {
-            throw new RuntimeException(e);
+    /**
+     * Disconnect and forget app's connection, if any.
+     *
+     * @param appId the app id
+     */
+    void disconnect(String appId) {
+        final ManagedConnection mc;
+        synchronized (this) {
+            mc = connections.remove(appId);
+        }
+        if (mc != null) {
+            mc.close();
         }
     }
 
-    public void destroyConnection(XMPPConnection connection) {
-        if (connection != null) {
-            connection.disconnect();
+    private static class ManagedConnection implements ConnectionListener, RosterListener {
+        private final String appId;
+        private final XmppConfiguration xmppConfig;
+        private XMPPConnection connection;
+        private boolean closed;
+
+        private ManagedConnection(String appId, XmppConfiguration xmppConfig) {
+            this.appId = appId;
+            this.xmppConfig = xmppConfig;
+        }
+
+        private synchronized XMPPConnection get() {
+            if (connection != null && connection.isConnected() && connection.isAuthenticated()) {
+                return connection;
+            }
+            if (connection != null) {
+                connection.disconnect(); // stop any pending reconnection
+            }
+            if (closed) {
+                throw new IllegalStateException("XMPP connection already closed [" + appId + "]");
+            }
+            connection = connect();
+            return connection;
+        }
+
+        private synchronized void close() {
+            closed = true;
+            if (connection != null) {
+                connection.disconnect();
+                connection = null;
+            }
+        }
+
+        private XMPPConnection connect() {
+            try {
+                ConnectionConfiguration config = new ConnectionConfiguration(xmppConfig.getHost(), xmppConfig.getPort());
+                config.setReconnectionAllowed(true);
+                XMPPConnection xc = new XMPPConnection(config);
+                xc.connect();
+                try {
+                    xc.login(xmppConfig.getUsername(), xmppConfig.getPassword());
+                    xc.addConnectionListener(this);
+                    Roster roster = xc.getRoster();
+                    roster.setSubscriptionMode(Roster.SubscriptionMode.accept_all);
+                    roster.addRosterListener(this);
+                    return xc;
+                } catch (XMPPException e) {
+                    xc.disconnect(); // also stops reconnection
+                    throw e;
+                } catch (RuntimeException e) {
+                    xc.disconnect();
+                    throw e;
+                }
+            } catch (XMPPException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        public void connectionClosed() {
+            log.info("XMPP connection closed [" + appId + "]");
+        }
+
+        public void connectionClosedOnError(Exception e) {
+            log.log(Level.WARNING, "XMPP connection closed on error [" + appId + "], reconnecting.", e);
+        }
+
+        public void reconnectingIn(int seconds) {
+        }
+
+        public void reconnectionSuccessful() {
+            log.info("XMPP connection re-established [" + appId + "]");
+        }
+
+        public void reconnectionFailed(Exception e) {
+            log.log(Level.WARNING, "XMPP reconnection failed [" + appId + "]", e);
+        }
+
+        public void entriesAdded(Collection<String> addresses) {
+        }
+
+        public void entriesUpdated(Collection<String> addresses) {
+        }
+
+        public void entriesDeleted(Collection<String> addresses) {
+        }
+
+        public void presenceChanged(Presence presence) {
+            if (log.isLoggable(Level.FINE)) {
+                log.fine("Presence changed [" + appId + "]: " + presence.getFrom() + " -> " + presence.getType());
+            }
         }
     }
 }